@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.lang.reflect.*;
 import java.io.*;
 
@@ -48,6 +50,11 @@ public class Kernel {
     private static Scheduler scheduler;
     private static Disk disk;
     private static Cache cache;
+    private final static int DISK_BLOCKS = 1000;
+
+    // Thread.Builder.unstarted() of a virtual thread builder, null for platform threads
+    private static Method virtualThreads = null;
+    private static Object virtualThreadBuilder = null;
 
     // Synchronized Queues
     private static SyncQueue waitQueue;  // for threads to wait for their child
@@ -56,23 +63,48 @@ public class Kernel {
     private final static int COND_DISK_REQ = 1; // wait condition 
     private final static int COND_DISK_FIN = 2; // wait condition
 
+    // Number of threads sleeping under COND_DISK_REQ, guarded by diskLock
+    // Only those get a wakeup, so that no wakeup is left over for a thread that doesn't sleep
+    private static final Object diskLock = new Object();
+    private static int diskRequestWaiters = 0;
+
     // Standard input
     private static BufferedReader input
             = new BufferedReader(new InputStreamReader(System.in));
 
+    // Lines of the standard input read by the stdin thread, null if the caller of READ reads them itself
+    // INPUT_END follows the last line
+    private static BlockingQueue<String> inputLines = null;
+    private final static String INPUT_END = new String("");
+
     // The heart of Kernel
     public static int interrupt(int irq, int cmd, int param, Object args) {
         TCB myTcb;
         switch (irq) {
             case INTERRUPT_SOFTWARE: // System calls
+                // a thread whose quantum has expired gives the CPU back here
+                if (scheduler != null)
+                    scheduler.yieldThread();
                 switch (cmd) {
                     case BOOT:
                         // instantiate and start a scheduler
-                        scheduler = new Scheduler();
+                        // -DthreadOS.scheduler.lanes=n runs up to n threads at once
+                        // -DthreadOS.scheduler.timeSlice=ms sets the time slice (queue1's quantum)
+                        // -DthreadOS.scheduler.maxThreads=n lets up to n threads exist at once
+                        // -DthreadOS.threads=virtual runs user threads on virtual threads, where the JDK has them
+                        scheduler = new Scheduler(
+                                Integer.getInteger("threadOS.scheduler.timeSlice", Scheduler.DEFAULT_TIME_SLICE),
+                                Integer.getInteger("threadOS.scheduler.maxThreads", Scheduler.DEFAULT_MAX_THREADS),
+                                Integer.getInteger("threadOS.scheduler.lanes", 1));
                         scheduler.start();
+                        if (System.getProperty("threadOS.threads", "platform").equals("virtual")) {
+                            initVirtualThreads();
+                            if (virtualThreads != null)
+                                startInputReader();
+                        }
 
                         // instantiate and start a disk
-                        disk = new Disk(1000);
+                        disk = new Disk(DISK_BLOCKS);
                         disk.start();
 
                         // instantiate a cache memory
@@ -100,28 +132,21 @@ public class Kernel {
                         scheduler.sleepThread(param); // param = milliseconds
                         return OK;
                     case RAWREAD: // read a block of data from disk
-                        while (disk.read(param, (byte[]) args) == false)
-                            ; // busy wait
-                        while (disk.testAndResetReady() == false)
-                            ; // busy wait
-                        return OK;
                     case RAWWRITE: // write a block of data to disk
-                        while (disk.write(param, (byte[]) args) == false)
-                            ; // busy wait
-                        while (disk.testAndResetReady() == false)
-                            ; // busy wait
-                        return OK;
                     case SYNC:     // synchronize disk data to a real file
-                        while (disk.sync() == false)
-                            ; // busy wait
-                        while (disk.testAndResetReady() == false)
-                            ; // busy wait
-                        return OK;
+                        return sysDisk(cmd, param, (byte[]) args);
                     case READ:
                         switch (param) {
                             case STDIN:
                                 try {
-                                    String s = input.readLine(); // read a keyboard input
+                                    // let the other threads run while waiting for the keyboard
+                                    scheduler.blockThread();
+                                    String s;
+                                    try {
+                                        s = readLine(); // read a keyboard input
+                                    } finally {
+                                        scheduler.unblockThread();
+                                    }
                                     if (s == null) {
                                         return ERROR;
                                     }
@@ -183,11 +208,10 @@ public class Kernel {
                 return ERROR;
             case INTERRUPT_DISK: // Disk interrupts
                 // wake up the thread waiting for a service completion
-                //ioQueue.dequeueAndWakeup( COND_DISK_FIN );
-
-                // wake up the thread waiting for a request acceptance
-                //ioQueue.dequeueAndWakeup( COND_DISK_REQ );
+                ioQueue.dequeueAndWakeup(COND_DISK_FIN);
 
+                // the threads waiting for a request acceptance are woken up
+                // once that thread has taken the result (see sysDisk)
                 return OK;
             case INTERRUPT_IO:   // other I/O interrupts (not implemented)
                 return OK;
@@ -195,6 +219,58 @@ public class Kernel {
         return OK;
     }
 
+    // Serving RAWREAD, RAWWRITE or SYNC
+    // The disk serves one command at a time, and takes the next one only after its result has been taken,
+    // so the thread sleeps in ioQueue until the disk accepts its command, and then until the disk interrupt
+    // for it, rather than spinning. It gives its lane to the other threads meanwhile
+    private static int sysDisk(int cmd, int blockId, byte buffer[]) {
+        // the disk would refuse a wrong blockId for good
+        if (cmd != SYNC && (blockId < 0 || blockId >= DISK_BLOCKS)) {
+            System.err.println("threadOS: a wrong blockId " + blockId);
+            return ERROR;
+        }
+
+        scheduler.blockThread();
+        try {
+            while (true) {
+                synchronized (diskLock) {
+                    if (submitDisk(cmd, blockId, buffer))
+                        break;
+                    diskRequestWaiters++;
+                }
+                ioQueue.enqueueAndSleep(COND_DISK_REQ);
+            }
+
+            // one interrupt per command, and only one command at a time
+            do {
+                ioQueue.enqueueAndSleep(COND_DISK_FIN);
+            } while (disk.testAndResetReady() == false);
+
+            // the disk can take the next command
+            synchronized (diskLock) {
+                if (diskRequestWaiters > 0) {
+                    diskRequestWaiters--;
+                    ioQueue.dequeueAndWakeup(COND_DISK_REQ);
+                }
+            }
+        } finally {
+            scheduler.unblockThread();
+        }
+        return OK;
+    }
+
+    // Handing a command to the disk, false if it is busy
+    private static boolean submitDisk(int cmd, int blockId, byte buffer[]) {
+        switch (cmd) {
+            case RAWREAD:
+                return disk.read(blockId, buffer);
+            case RAWWRITE:
+                return disk.write(blockId, buffer);
+            default:
+                return disk.sync();
+        }
+    }
+
     // Spawning a new thread
     private static int sysExec(String args[]) {
         String thrName = args[0]; // args[0] has a thread name
@@ -222,7 +298,7 @@ public class Kernel {
                 thrObj = thrConst.newInstance(constructorArgs);
             }
             // instantiate a new thread of this object
-            Thread t = new Thread((Runnable) thrObj);
+            Thread t = newThread((Runnable) thrObj);
 
             // add this thread into scheduler's circular list.
             TCB newTcb = scheduler.addThread(t);
@@ -244,4 +320,69 @@ public class Kernel {
             return ERROR;
         }
     }
+
+    // Looking up virtual threads
+    // Thread.ofVirtual() exists from Java 21 on, so it is called by reflection, and ThreadOS still builds
+    // and runs on older JDKs, with platform threads
+    private static void initVirtualThreads() {
+        try {
+            virtualThreadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtualThreads = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            virtualThreadBuilder = null;
+            virtualThreads = null;
+            System.err.println("threadOS: virtual threads are not available, using platform threads");
+        }
+    }
+
+    // Starting the stdin thread, a platform thread that reads the standard input line by line into inputLines
+    // A virtual thread blocked in the read would hold its carrier the whole time, and the JDK
+    // only makes up for it by adding a carrier, so the virtual threads wait on inputLines instead
+    private static void startInputReader() {
+        inputLines = new LinkedBlockingQueue<String>();
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    String s;
+                    while ((s = input.readLine()) != null)
+                        inputLines.add(s);
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+                inputLines.add(INPUT_END);
+            }
+        }, "stdin");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // Reading a line of the standard input, null at its end
+    private static String readLine() throws IOException {
+        if (inputLines == null)
+            return input.readLine();
+        try {
+            String s = inputLines.take();
+            if (s == INPUT_END) {
+                inputLines.add(INPUT_END);  // for the next reader
+                return null;
+            }
+            return s;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Instantiating a thread for a user thread object, not started
+    // A virtual thread parks, sleeps and blocks without holding an OS thread,
+    // so a lot more of them can exist at once than platform threads
+    private static Thread newThread(Runnable thrObj) {
+        if (virtualThreads != null) {
+            try {
+                return (Thread) virtualThreads.invoke(virtualThreadBuilder, thrObj);
+            } catch (Exception e) {
+                System.out.println(e);
+            }
+        }
+        return new Thread(thrObj);
+    }
 }
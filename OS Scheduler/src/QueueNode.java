@@ -0,0 +1,26 @@
+import java.util.*;
+
+public class QueueNode {
+    private Vector<Integer> pidQueue;
+
+    public QueueNode( ) {
+	pidQueue = new Vector<Integer>( );
+    }
+
+    public synchronized int sleep( ) {
+	// Loop rather than wait once: a thread that calls sleep( ) after a wakeup( )
+	// may take the queued pid before the thread that was notified gets to run.
+	while ( pidQueue.size( ) == 0 ) {
+	    try {
+		wait( );
+	    } catch ( InterruptedException e ) { }
+	}
+	Integer pid = pidQueue.remove( 0 );
+	return pid.intValue( );
+    }
+
+    public synchronized void wakeup( int pid ) {
+	pidQueue.add( Integer.valueOf( pid ) );
+	notify( );
+    }
+}
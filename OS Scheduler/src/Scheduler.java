@@ -25,6 +25,30 @@
  *     it gets suspended and moved to the tail of queue2.
  *
  *
+ * Dispatch:
+ * - The scheduler gives the CPU to a thread by starting it or unparking it (LockSupport), and parks
+ *   until the thread gives the CPU back. Only the thread that has the CPU runs; the others are parked.
+ * - A thread gives the CPU back at its first system call after its quantum has expired (yieldThread),
+ *   when it exits (deleteThread), or before a system call that blocks, such as reading the keyboard (blockThread).
+ *   A thread blocked in such a call leaves the queues, and goes back to queue0 when the call returns.
+ * - SysLib.sleep keeps the CPU, as a CPU burst would, until the quantum expires.
+ * - A thread that computes without making any system call is preempted once it has overrun its quantum
+ *   by a grace period of timeSlice / 2: its lane takes the CPU back, requeues it as if it had given the CPU back,
+ *   and dispatches the next thread. Java can't stop the thread (Thread.suspend is gone), so it runs on
+ *   alongside that thread until its next system call, where it waits for its next turn (yieldThread).
+ * - The threads may be virtual threads (see Kernel); a parked or sleeping virtual thread holds no OS thread,
+ *   so the number of threads that exist at once is bounded by maxThreads rather than by the OS.
+ *
+ *
+ * Lanes:
+ * - The scheduler has one or more lanes, each a CPU of ThreadOS with its own dispatcher thread
+ *   and its own queue0, queue1 and queue2, so that as many threads run at once as there are lanes.
+ *   The scheduler thread itself dispatches the first lane.
+ * - A new thread, or a thread whose blocking system call returns, is added to queue0 of the lane with the fewest threads.
+ * - A lane whose queues are empty steals a waiting thread from another lane before it waits for one:
+ *   from the queue0 of the other lanes first, then queue1, then queue2, into the same queue of its own.
+ *
+ *
  * Assumptions:
  * - There are two additional threads (Loader, Test2) scheduled in the queues by ThreadOS.
  *   However, they are not explicitly discussed in this algorithm since they don't affect
@@ -35,26 +59,33 @@
 
 
 import java.util.*;
-
-@SuppressWarnings("deprecation")
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 public class Scheduler extends Thread {
 
-    private Vector queue0;  // time quantum: 500ms ( = timeSlice / 2 )
-    private Vector queue1;  // time quantum: 1000ms ( = timeSlice )
-    private Vector queue2;  // time quantum: 2000ms ( = timeSlice * 2 )
-
     private int timeSlice;
-    private static final int DEFAULT_TIME_SLICE = 1000;
+    static final int DEFAULT_TIME_SLICE = 1000;
+
+    // The lanes, each with its own queue0, queue1 and queue2
+    private Lane[] lanes;
+
+    // The TCB of each thread in the queues, by thread
+    // Threads don't override equals() and hashCode(), so this is an identity map
+    private Map<Thread, TCB> tcbs = new ConcurrentHashMap<Thread, TCB>();
 
     // New data added to p161
     private boolean[] tids; // Indicate which ids have been used
-    private static final int DEFAULT_MAX_THREADS = 10000;
+    static final int DEFAULT_MAX_THREADS = 10000;
 
     // A new feature added to p161
     // Allocate an ID array, each element indicating if that id has been used
     private int nextId = 0;
 
+    // Held while tids and nextId are used
+    // The Scheduler is a Thread, and Thread.join() waits on its monitor, so it isn't locked itself
+    private final Object tidLock = new Object();
+
     private void initTid(int maxThreads) {
         tids = new boolean[maxThreads];
         for (int i = 0; i < maxThreads; i++)
@@ -63,65 +94,39 @@ public class Scheduler extends Thread {
 
     // A new feature added to p161
     // Search an available thread ID and provide a new thread with this ID
+    // Locked, since threads on different lanes spawn and exit at the same time
     private int getNewTid() {
-        for (int i = 0; i < tids.length; i++) {
-            int tentative = (nextId + i) % tids.length;
-            if (tids[tentative] == false) {
-                tids[tentative] = true;
-                nextId = (tentative + 1) % tids.length;
-                return tentative;
+        synchronized (tidLock) {
+            for (int i = 0; i < tids.length; i++) {
+                int tentative = (nextId + i) % tids.length;
+                if (tids[tentative] == false) {
+                    tids[tentative] = true;
+                    nextId = (tentative + 1) % tids.length;
+                    return tentative;
+                }
             }
+            return -1;
         }
-        return -1;
     }
 
     // A new feature added to p161
     // Return the thread ID and set the corresponding tids element to be unused
     private boolean returnTid(int tid) {
-        if (tid >= 0 && tid < tids.length && tids[tid] == true) {
-            tids[tid] = false;
-            return true;
+        synchronized (tidLock) {
+            if (tid >= 0 && tid < tids.length && tids[tid] == true) {
+                tids[tid] = false;
+                return true;
+            }
+            return false;
         }
-        return false;
     }
 
     // A new feature added to p161
-    // Retrieve the current thread's TCB from the queues
-    // Search them in the order of queue0, queue1, queue2
+    // Retrieve the current thread's TCB
+    // Looked up in tcbs rather than by scanning queue0, queue1 and queue2,
+    // so that it takes the same time however many threads there are
     public TCB getMyTcb() {
-        Thread myThread = Thread.currentThread(); // Get my thread object
-
-        // traverse in queue0
-        synchronized (queue0) {
-            for (int i = 0; i < queue0.size(); i++) {
-                TCB tcb = (TCB) queue0.elementAt(i);
-                Thread thread = tcb.getThread();
-                if (thread == myThread) // if this is my TCB, return it
-                    return tcb;
-            }
-        }
-
-        // traverse in queue1
-        synchronized (queue1) {
-            for (int i = 0; i < queue1.size(); i++) {
-                TCB tcb = (TCB) queue1.elementAt(i);
-                Thread thread = tcb.getThread();
-                if (thread == myThread) // if this is my TCB, return it
-                    return tcb;
-            }
-        }
-
-        // traverse in queue2
-        synchronized (queue2) {
-            for (int i = 0; i < queue2.size(); i++) {
-                TCB tcb = (TCB) queue2.elementAt(i);
-                Thread thread = tcb.getThread();
-                if (thread == myThread) // if this is my TCB, return it
-                    return tcb;
-            }
-        }
-
-        return null;
+        return tcbs.get(Thread.currentThread());
     }
 
     // A new feature added to p161
@@ -132,17 +137,13 @@ public class Scheduler extends Thread {
 
     public Scheduler() {
         timeSlice = DEFAULT_TIME_SLICE;
-        queue0 = new Vector();
-        queue1 = new Vector();
-        queue2 = new Vector();
+        initLanes(1);
         initTid(DEFAULT_MAX_THREADS);
     }
 
     public Scheduler(int quantum) {
         timeSlice = quantum;
-        queue0 = new Vector();
-        queue1 = new Vector();
-        queue2 = new Vector();
+        initLanes(1);
         initTid(DEFAULT_MAX_THREADS);
     }
 
@@ -150,26 +151,51 @@ public class Scheduler extends Thread {
     // A constructor to receive the max number of threads to be spawned
     public Scheduler(int quantum, int maxThreads) {
         timeSlice = quantum;
-        queue0 = new Vector();
-        queue1 = new Vector();
-        queue2 = new Vector();
+        initLanes(1);
         initTid(maxThreads);
     }
 
-    private void schedulerSleep() {
-        try {
-            if (queue0.size() != 0) {           // if queue0 is not empty
-                Thread.sleep(timeSlice / 2);
+    // A constructor to receive the number of lanes, the threads that run at once
+    public Scheduler(int quantum, int maxThreads, int laneCount) {
+        timeSlice = quantum;
+        initLanes(Math.max(1, laneCount));
+        initTid(maxThreads);
+    }
 
-            } else if (queue1.size() != 0) {    // if queue0 is empty & queue1 is not empty
-                Thread.sleep(timeSlice);
+    private void initLanes(int laneCount) {
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++)
+            lanes[i] = new Lane();
+    }
 
-            } else {                            // if queue0 and queue1 is empty
-                Thread.sleep(timeSlice * 2);
-            }
+    // Return the number of lanes
+    public int getLanes() {
+        return lanes.length;
+    }
+
+    // Return the lane that gave the CPU to the thread of tcb, null if none has
+    private Lane laneOf(TCB tcb) {
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].running == tcb)
+                return lanes[i];
+        }
+        return null;
+    }
 
-        } catch (InterruptedException e) {
+    // Return the lane with the fewest threads in its queues
+    private Lane leastLoaded() {
+        Lane lane = lanes[0];
+        for (int i = 1; i < lanes.length; i++) {
+            if (lanes[i].load() < lane.load())
+                lane = lanes[i];
         }
+        return lane;
+    }
+
+    // Wait until a lane gives the CPU to the thread of tcb
+    private void acquire(TCB tcb) {
+        while (laneOf(tcb) == null)
+            LockSupport.park(this);
     }
 
     // A modified addThread of p161 example
@@ -181,156 +207,311 @@ public class Scheduler extends Thread {
         if (tid == -1)
             return null;
         TCB tcb = new TCB(t, tid, pid); // create a new TCB
-        queue0.add(tcb); // New thread should be always added to queue0.
+        tcbs.put(t, tcb);
+        leastLoaded().add(tcb); // New thread should be always added to queue0.
         return tcb;
     }
 
     // A new feature added to p161
     // Removing the TCB of a terminating thread
+    // The thread gives the CPU back as it exits
     public boolean deleteThread() {
         TCB tcb = getMyTcb();
-        if (tcb != null)
-            return tcb.setTerminated();
-        else
+        if (tcb != null) {
+            tcb.setTerminated();
+            Lane lane = laneOf(tcb);
+            if (lane != null)
+                lane.release();
+            return true;
+        } else
             return false;
     }
 
+    // The thread keeps the CPU while it sleeps, as in a CPU burst
+    // If its quantum expires, it gives the CPU back and sleeps the rest in its next turns
     public void sleepThread(int milliseconds) {
-        try {
-            sleep(milliseconds);
-        } catch (InterruptedException e) {
+        TCB tcb = getMyTcb();
+        long remaining = milliseconds * 1000000L;
+        while (remaining > 0) {
+            long slice = remaining;
+            Lane lane = (tcb != null) ? laneOf(tcb) : null;
+            if (lane != null) {
+                slice = Math.min(slice, lane.deadline - System.nanoTime());
+                if (slice <= 0) {
+                    yieldThread();
+                    continue;
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                sleep(slice / 1000000, (int) (slice % 1000000));
+            } catch (InterruptedException e) {
+            }
+            remaining -= System.nanoTime() - start;
+        }
+    }
+
+    // Called by Kernel at every system call
+    // If the quantum of the calling thread has expired, it gives the CPU back and waits for its next turn
+    // A thread that has been preempted waits for its next turn as well
+    public void yieldThread() {
+        TCB tcb = getMyTcb();
+        Lane lane = (tcb != null) ? laneOf(tcb) : null;
+        if (lane != null && System.nanoTime() - lane.deadline >= 0) {
+            lane.release();
+            acquire(tcb);
+        } else if (lane == null && tcb != null && tcb.getPreempted()) {
+            acquire(tcb);
+        }
+    }
+
+    // Called by Kernel before a system call that may block for long
+    // The calling thread leaves the queues and gives the CPU back, so that the other threads run meanwhile
+    public void blockThread() {
+        TCB tcb = getMyTcb();
+        Lane lane = (tcb != null) ? laneOf(tcb) : null;
+        if (lane != null) {
+            lane.queue0.remove(tcb);
+            lane.queue1.remove(tcb);
+            lane.queue2.remove(tcb);
+            lane.release();
+        }
+    }
+
+    // Called by Kernel after a system call that may block for long
+    // The calling thread goes back to queue0 and waits for its turn
+    public void unblockThread() {
+        TCB tcb = getMyTcb();
+        if (tcb != null && laneOf(tcb) == null && !tcb.getTerminated()) {
+            leastLoaded().add(tcb);
+            acquire(tcb);
         }
     }
 
     // A modified run of p161
+    // The scheduler thread dispatches the first lane, and starts a dispatcher thread for each other lane
     public void run() {
-        Thread current = null;
+        for (int i = 1; i < lanes.length; i++)
+            new Thread(lanes[i], "lane " + i).start();
+        lanes[0].run();
+    }
 
-        // this.setPriority( 6 );
 
-        while (true) {
-            try {
-                // get the next TCB and its thread
-                // if queues are empty, keep waiting
-                if (queue0.size() == 0 && queue1.size() == 0 && queue2.size() == 0)
-                    continue;
+    // A lane: a CPU of ThreadOS, running one thread at a time from its own queue0, queue1 and queue2
+    private class Lane implements Runnable {
 
+        private Vector queue0 = new Vector();  // time quantum: 500ms ( = timeSlice / 2 )
+        private Vector queue1 = new Vector();  // time quantum: 1000ms ( = timeSlice )
+        private Vector queue2 = new Vector();  // time quantum: 2000ms ( = timeSlice * 2 )
 
-                /************** process the queue0 **************/
-                if (queue0.size() != 0) {
-                    TCB currentTCB = (TCB) queue0.firstElement();
+        // The dispatcher waits on this while all the queues are empty and there is nothing to steal,
+        // and add notifies it, so that an idle lane uses no CPU
+        private Object idle = new Object();
 
-                    if (currentTCB.getTerminated() == true) {
-                        queue0.remove(currentTCB);
-                        returnTid(currentTCB.getTid());
-                        continue;
-                    }
+        // The TCB of the thread that has the CPU, null while the dispatcher has it
+        // The thread gives the CPU back by setting it to null
+        private volatile TCB running = null;
 
-                    current = currentTCB.getThread();
-                    if (current != null) {
-                        if (current.isAlive()) {
-                            // current.setPriority( 4 );
-                            current.resume();
-                        } else {
-                            // Spawn must be controlled by Scheduler
-                            // Scheduler must start a new thread
-                            current.start();
-
-                            // current.setPriority( 4 );
-                        }
-                    }
+        // The TCB claimed for the current turn, until the dispatcher has requeued it
+        // It stays set after the thread gives the CPU back, so that no other lane steals it before its demotion
+        private volatile TCB turn = null;
 
-                    schedulerSleep();
-                    // System.out.println("* * * Context Switch * * * ");
+        // When the quantum of the running thread expires, in System.nanoTime()
+        private volatile long deadline;
+
+        // The thread that dispatches this lane
+        private volatile Thread dispatcher;
+
+        // Return queue0, queue1 or queue2
+        private Vector queue(int level) {
+            return (level == 0) ? queue0 : (level == 1) ? queue1 : queue2;
+        }
 
-                    synchronized (queue0) {
-                        if (current != null && current.isAlive()) {
-                            // current.setPriority( 2 );
-                            current.suspend();
+        private int load() {
+            return queue0.size() + queue1.size() + queue2.size();
+        }
+
+        // Append a TCB to queue0, and wake up the dispatcher if it is waiting for a thread
+        private void add(TCB tcb) {
+            queue0.add(tcb);
+            synchronized (idle) {
+                idle.notify();
+            }
+        }
+
+        // Take the first TCB of the queue, reaping it if its thread has terminated,
+        // and give it the CPU for a quantum of the given milliseconds
+        // Done under the lock of the queue, so that no other lane steals the TCB meanwhile
+        private TCB claim(Vector queue, int quantum) {
+            synchronized (queue) {
+                if (queue.size() == 0)
+                    return null;
+                TCB currentTCB = (TCB) queue.firstElement();
+
+                if (currentTCB.getTerminated() == true) {
+                    queue.remove(currentTCB);
+                    tcbs.remove(currentTCB.getThread());
+                    returnTid(currentTCB.getTid());
+                    return null;
+                }
+
+                deadline = System.nanoTime() + quantum * 1000000L;
+                currentTCB.setPreempted(false);
+                turn = currentTCB;
+                running = currentTCB;
+                return currentTCB;
+            }
+        }
+
+        // Take a waiting TCB from another lane into the same queue of this lane
+        // The first one found in the queue0 of the lanes, then in their queue1, then in their queue2
+        // The TCB of another lane's current turn is not waiting, even after its thread gives the CPU back
+        private boolean steal() {
+            for (int level = 0; level < 3; level++) {
+                for (int i = 0; i < lanes.length; i++) {
+                    Lane victim = lanes[i];
+                    if (victim == this)
+                        continue;
+                    Vector from = victim.queue(level);
+                    TCB stolen = null;
+                    synchronized (from) {
+                        for (int j = 0; j < from.size(); j++) {
+                            TCB tcb = (TCB) from.elementAt(j);
+                            if (tcb != victim.turn && tcb.getTerminated() == false) {
+                                from.removeElementAt(j);
+                                stolen = tcb;
+                                break;
+                            }
                         }
-                        queue0.remove(currentTCB);  // remove this TCB from queue0
-                        queue1.add(currentTCB);     // append this TCB to queue1
+                    }
+                    if (stolen != null) {
+                        queue(level).add(stolen);
+                        return true;
                     }
                 }
+            }
+            return false;
+        }
 
+        // Give the CPU to the thread of the claimed TCB, and wait until the thread gives it back,
+        // or until it has overrun its quantum by the grace period and is preempted
+        private void dispatch(TCB currentTCB) {
+            Thread current = currentTCB.getThread();
+            if (current == null) {
+                running = null;
+                return;
+            }
 
-                /************** process the queue1 **************/
-                else if (queue1.size() != 0) {
-                    TCB currentTCB = (TCB) queue1.firstElement();
+            if (current.getState() == Thread.State.NEW) {
+                // Spawn must be controlled by Scheduler
+                // Scheduler must start a new thread
+                try {
+                    current.start();
+                } catch (OutOfMemoryError e) {
+                    // the OS has no thread left for it
+                    System.err.println("threadOS: tid=" + currentTCB.getTid() + " could not be started: " + e);
+                    currentTCB.setTerminated();
+                    running = null;
+                    return;
+                }
+            } else {
+                LockSupport.unpark(current);
+            }
 
-                    if (currentTCB.getTerminated() == true) {
-                        queue1.remove(currentTCB);
-                        returnTid(currentTCB.getTid());
-                        continue;
-                    }
+            long grace = timeSlice / 2 * 1000000L;
+            while (running == currentTCB) {
+                long left = deadline + grace - System.nanoTime();
+                if (left <= 0) {
+                    // no system call since the quantum expired; the thread waits at its next one
+                    currentTCB.setPreempted(true);
+                    running = null;
+                    return;
+                }
+                LockSupport.parkNanos(this, left);
+                if (running == currentTCB && !current.isAlive()) {
+                    // the thread ended without SysLib.exit()
+                    currentTCB.setTerminated();
+                    running = null;
+                }
+            }
+        }
 
-                    current = currentTCB.getThread();
-                    if (current != null) {
-                        if (current.isAlive()) {
-                            // current.setPriority( 4 );
-                            current.resume();
-                        } else {
-                            // Spawn must be controlled by Scheduler
-                            // Scheduler must start a new thread
-                            current.start();
-
-                            // current.setPriority( 4 );
-                        }
+        // Give the CPU back to the dispatcher
+        private void release() {
+            running = null;
+            LockSupport.unpark(dispatcher);
+        }
+
+        public void run() {
+            dispatcher = Thread.currentThread();
+
+            while (true) {
+                try {
+                    // get the next TCB and its thread
+                    // if queues are empty, steal a thread from another lane, or wait until add adds one
+                    synchronized (idle) {
+                        while (queue0.size() == 0 && queue1.size() == 0 && queue2.size() == 0 && !steal())
+                            idle.wait();
                     }
 
-                    schedulerSleep();
-                    // System.out.println("* * * Context Switch * * * ");
 
-                    synchronized (queue1) {
-                        if (current != null && current.isAlive()) {
-                            // current.setPriority( 2 );
-                            current.suspend();
+                    /************** process the queue0 **************/
+                    if (queue0.size() != 0) {
+                        TCB currentTCB = claim(queue0, timeSlice / 2);
+                        if (currentTCB == null)
+                            continue;
+
+                        dispatch(currentTCB);
+                        // System.out.println("* * * Context Switch * * * ");
+
+                        synchronized (queue0) {
+                            // a thread that blocked has left the queue already
+                            if (queue0.remove(currentTCB))  // remove this TCB from queue0
+                                queue1.add(currentTCB); // append this TCB to queue1
+                            turn = null;
                         }
-                        queue1.remove(currentTCB);  // remove this TCB from queue1
-                        queue2.add(currentTCB);     // append this TCB to queue2
                     }
-                }
 
 
-                /************** process the queue2 **************/
-                else {
-                    TCB currentTCB = (TCB) queue2.firstElement();
+                    /************** process the queue1 **************/
+                    else if (queue1.size() != 0) {
+                        TCB currentTCB = claim(queue1, timeSlice);
+                        if (currentTCB == null)
+                            continue;
 
-                    if (currentTCB.getTerminated() == true) {
-                        queue2.remove(currentTCB);
-                        returnTid(currentTCB.getTid());
-                        continue;
-                    }
+                        dispatch(currentTCB);
+                        // System.out.println("* * * Context Switch * * * ");
 
-                    current = currentTCB.getThread();
-                    if (current != null) {
-                        if (current.isAlive()) {
-                            // current.setPriority( 4 );
-                            current.resume();
-                        } else {
-                            // Spawn must be controlled by Scheduler
-                            // Scheduler must start a new thread
-                            current.start();
-
-                            // current.setPriority( 4 );
+                        synchronized (queue1) {
+                            // a thread that blocked has left the queue already
+                            if (queue1.remove(currentTCB))  // remove this TCB from queue1
+                                queue2.add(currentTCB); // append this TCB to queue2
+                            turn = null;
                         }
                     }
 
-                    schedulerSleep();
-                    // System.out.println("* * * Context Switch * * * ");
 
-                    synchronized (queue2) {
-                        if (current != null && current.isAlive()) {
-                            // current.setPriority( 2 );
-                            current.suspend();
+                    /************** process the queue2 **************/
+                    else {
+                        TCB currentTCB = claim(queue2, timeSlice * 2);
+                        if (currentTCB == null)
+                            continue;
+
+                        dispatch(currentTCB);
+                        // System.out.println("* * * Context Switch * * * ");
+
+                        synchronized (queue2) {
+                            // a thread that blocked has left the queue already
+                            if (queue2.remove(currentTCB))  // remove this TCB from queue2
+                                queue2.add(currentTCB); // append this TCB to queue2
+                            turn = null;
                         }
-                        queue2.remove(currentTCB);  // remove this TCB from queue2
-                        queue2.add(currentTCB);     // append this TCB to queue2
                     }
-                }
 
-            } catch (NullPointerException e3) {
+                } catch (NullPointerException e3) {
+                } catch (InterruptedException e) {
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ public class TCB {
     private int tid = 0;
     private int pid = 0;
     private boolean terminated = false;
+    private boolean preempted = false; // the scheduler took the CPU back while the thread ran on
     private int sleepTime = 0;
     public FileTableEntry[] ftEnt = null; // added for the file system
 
@@ -40,6 +41,14 @@ public class TCB {
         return terminated;
     }
 
+    public synchronized void setPreempted(boolean value) {
+        preempted = value;
+    }
+
+    public synchronized boolean getPreempted() {
+        return preempted;
+    }
+
     // added for the file system
     public synchronized int getFd(FileTableEntry entry) {
         if (entry == null)
@@ -0,0 +1,48 @@
+/**
+ *
+ * Test2c class measures how the latency of a syscall that looks up the caller's TCB grows with the number of threads.
+ * It spawns TestThread2c workers with SysLib.exec, which looks up the caller's TCB to find the parent id,
+ * and reports the median exec latency of each batch of spawns.
+ * It first sleeps long enough to be moved out of queue0, so that the workers it spawns are queued ahead of it;
+ * a lookup that scans the queues then has to pass all of them.
+ *
+ * Usage: l Test2c [threads] [batch]
+ *
+ *
+ */
+
+
+import java.util.Arrays;
+
+class Test2c extends Thread {
+    private int threads;
+    private int batch;
+
+    public Test2c() {
+        this(new String[0]);
+    }
+
+    public Test2c(String args[]) {
+        threads = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        batch = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    }
+
+    public void run() {
+        SysLib.sleep(1500);     // leave queue0
+
+        String[] worker = SysLib.stringToArgs("TestThread2c");
+        long[] latencies = new long[batch];
+        for (int spawned = 0; spawned < threads; spawned += batch) {
+            int n = Math.min(batch, threads - spawned);
+            for (int i = 0; i < n; i++) {
+                long start = System.nanoTime();
+                SysLib.exec(worker);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies, 0, n);
+            SysLib.cout("threads " + spawned + " - " + (spawned + n) + ": median exec latency = "
+                    + latencies[n / 2] / 1000 + " us\n");
+        }
+        SysLib.exit();
+    }
+}
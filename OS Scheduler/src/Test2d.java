@@ -0,0 +1,47 @@
+/**
+ *
+ * Test2d class measures the context switch latency of the Scheduler:
+ * the time from a thread's SysLib.exit() to the start of the next thread.
+ * It spawns TestThread2d workers, which are queued in queue0 one after another and run in that order,
+ * and reports the median and the maximum of the time between a worker's exit and the next worker's start.
+ * It first sleeps long enough to be moved out of queue0, so that the workers run back to back.
+ *
+ * Usage: l Test2d [threads]
+ *
+ *
+ */
+
+
+import java.util.Arrays;
+
+class Test2d extends Thread {
+    private int threads;
+
+    public Test2d() {
+        this(new String[0]);
+    }
+
+    public Test2d(String args[]) {
+        threads = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    }
+
+    public void run() {
+        SysLib.sleep(1500);     // leave queue0
+
+        TestThread2d.started = new long[threads];
+        TestThread2d.exited = new long[threads];
+        TestThread2d.finished.set(0);
+        for (int i = 0; i < threads; i++)
+            SysLib.exec(SysLib.stringToArgs("TestThread2d " + i));
+        while (TestThread2d.finished.get() < threads)
+            SysLib.sleep(100);
+
+        long[] latencies = new long[threads - 1];
+        for (int i = 0; i < threads - 1; i++)
+            latencies[i] = TestThread2d.started[i + 1] - TestThread2d.exited[i];
+        Arrays.sort(latencies);
+        SysLib.cout(threads - 1 + " context switches: median = " + latencies[latencies.length / 2] / 1000
+                + " us, max = " + latencies[latencies.length - 1] / 1000 + " us\n");
+        SysLib.exit();
+    }
+}
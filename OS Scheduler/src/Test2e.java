@@ -0,0 +1,54 @@
+/**
+ *
+ * Test2e class runs many lightweight programs at once.
+ * It spawns TestThread2e workers, and reports the most workers that existed at once (spawned and not exited),
+ * the most that were live at once (started, and parked or running, and not exited), and how long they all took.
+ *
+ * Run it with a maxThreads above the number of workers. A long time slice lets it spawn all of them in its first turn:
+ * java -DthreadOS.scheduler.timeSlice=20000 -DthreadOS.scheduler.maxThreads=200000 -DthreadOS.scheduler.lanes=8 Boot
+ * With a short time slice and a burst longer than the quantum of queue0, each worker parks in the middle of its burst,
+ * holding an OS thread if it is a platform thread, and none if it is a virtual thread (-DthreadOS.threads=virtual).
+ *
+ * Usage: l Test2e [threads] [burst]
+ *
+ *
+ */
+
+
+class Test2e extends Thread {
+    private int threads;
+    private int burst;
+
+    public Test2e() {
+        this(new String[0]);
+    }
+
+    public Test2e(String args[]) {
+        threads = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        burst = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    }
+
+    public void run() {
+        TestThread2e.live.set(0);
+        TestThread2e.peak.set(0);
+        TestThread2e.finished.set(0);
+
+        long start = System.nanoTime();
+        String[] worker = SysLib.stringToArgs("TestThread2e " + burst);
+        int existing = 0;
+        for (int i = 0; i < threads; i++) {
+            if (SysLib.exec(worker) < 0) {
+                SysLib.cout("Test2e: thread " + i + " could not be spawned\n");
+                threads = i;
+                break;
+            }
+            existing = Math.max(existing, i + 1 - TestThread2e.finished.get());
+        }
+        while (TestThread2e.finished.get() < threads)
+            SysLib.sleep(1);
+
+        SysLib.cout(threads + " threads: " + existing + " existed at once, " + TestThread2e.peak.get()
+                + " live at once, all done in " + (System.nanoTime() - start) / 1000000 + " ms\n");
+        SysLib.exit();
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ *
+ * Test2f class shows that a thread that never makes a system call doesn't keep the others from running.
+ * It spawns a TestThread2f that computes for hogMillis without any system call, and then TestThread2 threads
+ * with short CPU bursts. Their response times show how long they waited behind the computing thread:
+ * about its whole burst if it keeps the CPU, or about its quantum and the grace period if it is preempted.
+ *
+ * Usage: l Test2f [hogMillis] [threads]
+ *
+ *
+ */
+
+
+class Test2f extends Thread {
+    private int hogMillis;
+    private int threads;
+
+    public Test2f() {
+        this(new String[0]);
+    }
+
+    public Test2f(String args[]) {
+        hogMillis = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        threads = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    }
+
+    public void run() {
+        SysLib.exec(SysLib.stringToArgs("TestThread2f hog " + hogMillis));
+        for (int i = 0; i < threads; i++)
+            SysLib.exec(SysLib.stringToArgs("TestThread2 " + (char) ('a' + i) + " 500"));
+        for (int i = 0; i < threads + 1; i++)
+            SysLib.join();
+        SysLib.cout("Test2f finished\n");
+        SysLib.exit();
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ *
+ * TestThread2c class is a worker spawned by Test2c. It exits as soon as it runs.
+ *
+ *
+ */
+
+
+class TestThread2c extends Thread {
+
+    public void run() {
+        SysLib.exit();
+    }
+}
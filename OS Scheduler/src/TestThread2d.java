@@ -0,0 +1,29 @@
+/**
+ *
+ * TestThread2d class is a worker spawned by Test2d.
+ * It records when it starts running and when it exits, in arrays shared with Test2d.
+ *
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestThread2d extends Thread {
+    static long[] started;                      // System.nanoTime() when each worker started running
+    static long[] exited;                       // System.nanoTime() when each worker called SysLib.exit()
+    static AtomicInteger finished = new AtomicInteger();
+
+    private int id;
+
+    public TestThread2d(String args[]) {
+        id = Integer.parseInt(args[0]);
+    }
+
+    public void run() {
+        started[id] = System.nanoTime();
+        exited[id] = System.nanoTime();
+        finished.incrementAndGet();
+        SysLib.exit();
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ * TestThread2e class is a worker spawned by Test2e. It sleeps, as a CPU burst, and exits.
+ * With a burst longer than the quantum of queue0, it waits parked for its second turn in the middle of it.
+ * Counters shared with Test2e keep how many workers have started and not exited yet, and the most of them at once.
+ *
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestThread2e extends Thread {
+    static AtomicInteger live = new AtomicInteger();        // workers started and not exited yet
+    static AtomicInteger peak = new AtomicInteger();        // the most workers live at once
+    static AtomicInteger finished = new AtomicInteger();
+
+    private int burst;
+
+    public TestThread2e(String args[]) {
+        burst = Integer.parseInt(args[0]);
+    }
+
+    public void run() {
+        int now = live.incrementAndGet();
+        int highest = peak.get();
+        while (now > highest && !peak.compareAndSet(highest, now))
+            highest = peak.get();
+        SysLib.sleep(burst);
+        live.decrementAndGet();
+        finished.incrementAndGet();
+        SysLib.exit();
+    }
+}
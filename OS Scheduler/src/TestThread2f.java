@@ -0,0 +1,41 @@
+/**
+ *
+ * TestThread2f class is the thread spawned by Test2f that computes for a while without any system call,
+ * and then reports its times the way TestThread2 does.
+ *
+ *
+ */
+
+
+import java.util.Date;
+
+class TestThread2f extends Thread {
+    private String name;
+    private int cpuBurst;
+
+    private long submissionTime;
+    private long responseTime;
+    private long completionTime;
+
+    public TestThread2f(String args[]) {
+        name = args[0];
+        cpuBurst = Integer.parseInt(args[1]);
+
+        submissionTime = new Date().getTime();
+    }
+
+    public void run() {
+        responseTime = new Date().getTime();
+
+        while (new Date().getTime() - responseTime < cpuBurst)
+            ;   // no system call
+
+        completionTime = new Date().getTime();
+        SysLib.cout("Thread[" + name + "]:" +
+                " response time = " + (responseTime - submissionTime) +
+                " turnaround time = " + (completionTime - submissionTime) +
+                " execution time = " + (completionTime - responseTime) +
+                "\n");
+        SysLib.exit();
+    }
+}
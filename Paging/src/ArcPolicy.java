@@ -0,0 +1,156 @@
+/**
+ *
+ * ArcPolicy class implements the Adaptive Replacement Cache algorithm (Megiddo and Modha).
+ * The resident pages are kept in two LRU lists:
+ *   T1 - blocks that have been accessed once since they were stored
+ *   T2 - blocks that have been accessed at least twice
+ * and the blockIds recently evicted from them are remembered in two ghost lists, B1 and B2.
+ * A miss on a block in B1 means T1 was too small, so the target size p of T1 grows;
+ * a miss on a block in B2 shrinks it. A scan of blocks used only once therefore
+ * only cycles through T1 and doesn't flush the frequently used blocks in T2.
+ *
+ * Nodes 0 .. c - 1 of the PageLists are the pages, and nodes c .. 2c - 1 hold the ghost blockIds.
+ *
+ *
+ */
+
+
+public class ArcPolicy implements ReplacementPolicy {
+	private static final int T1 = 0;
+	private static final int T2 = 1;
+	private static final int B1 = 2;
+	private static final int B2 = 3;
+
+	private Pages pages;				// state of the stripe's pages
+	private int capacity;				// c, the number of pages
+	private int target;					// p, the target size of T1
+	private PageLists lists;			// T1, T2, B1 and B2
+	private int[] ghostBlock;			// blockId of each ghost node, indexed by node - capacity
+	private BlockIndex ghostIndex;		// blockId -> ghost node
+	private int[] freeGhosts;			// stack of unused ghost nodes
+	private int freeGhostCount;			// number of nodes in freeGhosts
+
+
+	/**
+	 * @param pages state of the stripe's pages
+	 * @param pageTableLength The total number of pages
+	 */
+	public ArcPolicy(Pages pages, int pageTableLength) {
+		this.pages = pages;
+		capacity = pageTableLength;
+		lists = new PageLists(2 * capacity, 4);
+		ghostBlock = new int[capacity];
+		ghostIndex = new BlockIndex(capacity);
+		freeGhosts = new int[capacity];
+		reset();
+	}
+
+	public void accessed(int page) {
+		lists.addLast(T2, page);
+	}
+
+	public void inserted(int page, int blockId) {
+		int ghost = ghostIndex.get(blockId);
+		if (ghost == -1) {
+			lists.addLast(T1, page);
+			return;
+		}
+
+		// A ghost hit: adapt the target size of T1 and store the block in T2.
+		int b1 = lists.size(B1);
+		int b2 = lists.size(B2);
+		if (lists.listOf(ghost) == B1) {
+			target = Math.min(capacity, target + Math.max(b2 / b1, 1));
+		} else {
+			target = Math.max(0, target - Math.max(b1 / b2, 1));
+		}
+		forgetGhost(ghost);
+		lists.addLast(T2, page);
+	}
+
+	/**
+	 * Evicts the least recently used page of T1 if T1 is larger than its target (or blockId is in B2 and
+	 * T1 is at its target), and that of T2 otherwise. The evicted blockId moves to B1 or B2.
+	 * Busy pages are skipped; if the preferred list has only busy pages, the other list is used.
+	 *
+	 * @param blockId The number that specifies the block that is going to be stored
+	 * @return index for victim page, or -1 if every page is busy
+	 */
+	public int victim(int blockId) {
+		int t1 = lists.size(T1);
+		int ghost = ghostIndex.get(blockId);
+		boolean inB2 = ghost != -1 && lists.listOf(ghost) == B2;
+
+		boolean fromT1 = t1 > 0 && (t1 > target || (inB2 && t1 == target));
+		int page = leastRecent(fromT1 ? T1 : T2);
+		if (page == -1) {
+			fromT1 = !fromT1;
+			page = leastRecent(fromT1 ? T1 : T2);
+			if (page == -1) {
+				return -1;
+			}
+		}
+
+		lists.remove(page);
+		remember(fromT1 ? B1 : B2, pages.blockIdOf(page));
+		return page;
+	}
+
+	public void reset() {
+		target = 0;
+		lists.clear();
+		ghostIndex.clear();
+		for (int i = 0; i < capacity; i++) {
+			freeGhosts[i] = capacity + i;
+		}
+		freeGhostCount = capacity;
+	}
+
+	/**
+	 * @param list T1 or T2
+	 * @return the least recently used page of the list that isn't busy, or -1 if not found
+	 */
+	private int leastRecent(int list) {
+		for (int page = lists.first(list); page != PageLists.NONE; page = lists.next(page)) {
+			if (!pages.isBusy(page)) {
+				return page;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds blockId to the ghost list. Keeps |T1| + |B1| and |B1| + |B2| within c
+	 * by dropping the oldest ghost of B1 or B2 first.
+	 *
+	 * @param list B1 or B2
+	 * @param blockId The number that specifies the evicted block
+	 */
+	private void remember(int list, int blockId) {
+		if (blockId < 0) {
+			return;
+		}
+		if (lists.size(T1) + lists.size(B1) >= capacity && lists.size(B1) > 0) {
+			forgetGhost(lists.first(B1));
+		}
+		if (freeGhostCount == 0) {
+			forgetGhost(lists.first(lists.size(B2) > 0 ? B2 : B1));
+		}
+
+		int ghost = freeGhosts[--freeGhostCount];
+		ghostBlock[ghost - capacity] = blockId;
+		ghostIndex.put(blockId, ghost);
+		lists.addLast(list, ghost);
+	}
+
+	/**
+	 * Drops the ghost node from its list.
+	 *
+	 * @param ghost The ghost node
+	 */
+	private void forgetGhost(int ghost) {
+		lists.remove(ghost);
+		ghostIndex.remove(ghostBlock[ghost - capacity]);
+		freeGhosts[freeGhostCount++] = ghost;
+	}
+}
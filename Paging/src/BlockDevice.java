@@ -0,0 +1,59 @@
+/**
+ *
+ * BlockDevice interface is what the Kernel's rawread, rawwrite and sync go through.
+ * Requests are queued and served in the background; the disk interrupt completes each DiskRequest.
+ *
+ * Implementations:
+ *   Disk      - a single simulated disk with its own thread and DISK file (default)
+ *   DiskArray - several Disks, striped (RAID-0) or mirrored (RAID-1) (-DthreadOS.disk.count=n)
+ *
+ *
+ */
+
+
+public interface BlockDevice {
+
+	/**
+	 * Queues a read of a block.
+	 *
+	 * @param blockId The number that specifies the block to read from
+	 * @param buffer array in which the data is going to be stored
+	 * @return the request, or null if it can't be queued now
+	 */
+	DiskRequest read(int blockId, byte buffer[]);
+
+	/**
+	 * Queues a write of a block.
+	 *
+	 * @param blockId The number that specifies the block to write to
+	 * @param buffer array that contains the data
+	 * @return the request, or null if it can't be queued now
+	 */
+	DiskRequest write(int blockId, byte buffer[]);
+
+	/**
+	 * Queues a sync of the data written so far to the backing file.
+	 *
+	 * @return the request, or null if it can't be queued now
+	 */
+	DiskRequest sync();
+
+	/**
+	 * Copies as many of the statistics as fit into stats, in the order given by Disk.STAT_REQUESTS and so on.
+	 *
+	 * @param stats array that is going to be copied to
+	 */
+	void getStats(long stats[]);
+
+	/**
+	 * Counts the time from when the request was made until its thread resumed.
+	 *
+	 * @param request a request that has been served
+	 */
+	void recordLatency(DiskRequest request);
+
+	/**
+	 * Starts the threads that serve the requests.
+	 */
+	void start();
+}
@@ -0,0 +1,173 @@
+/**
+ *
+ * BlockIndex class maps a disk blockId to the index of the page that holds it in the Cache.
+ * It is an open addressing hash table with linear probing that stores keys and values
+ * in two int arrays, so a lookup neither walks the pageTable nor boxes the blockId.
+ * Deletion shifts the following entries back instead of leaving tombstones,
+ * which keeps every probe sequence short no matter how many evictions happened.
+ *
+ *
+ */
+
+
+public class BlockIndex {
+	private static final int EMPTY = -1;	// marks an unused slot in keys
+
+	private int[] keys;						// blockIds
+	private int[] values;					// page indices in the Cache's pageTable
+	private int mask;						// keys.length - 1 (length is a power of two)
+	private int size;						// number of mappings
+
+
+	/**
+	 * The constructor sizes the table to at least twice the expected number of mappings
+	 * so that the load factor never exceeds one half.
+	 *
+	 * @param expectedSize The maximum number of mappings kept at the same time
+	 */
+	public BlockIndex(int expectedSize) {
+		int capacity = capacityFor(expectedSize);
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		clear();
+	}
+
+	/**
+	 * @param expectedSize The maximum number of mappings kept at the same time
+	 * @return the smallest power of two that is at least twice expectedSize
+	 */
+	private static int capacityFor(int expectedSize) {
+		int capacity = 2;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Enlarges the table if needed so that expectedSize mappings keep the load factor within one half.
+	 * All the mappings are rehashed into the new table.
+	 *
+	 * @param expectedSize The maximum number of mappings kept at the same time
+	 */
+	public void ensureCapacity(int expectedSize) {
+		int capacity = capacityFor(expectedSize);
+		if (capacity <= keys.length) {
+			return;
+		}
+
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		clear();
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of blockId so that consecutive blocks don't fill consecutive slots.
+	 *
+	 * @param blockId The key to hash
+	 * @return home slot for blockId
+	 */
+	private int slotOf(int blockId) {
+		int h = blockId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Returns the page index mapped to blockId. If not found, returns -1.
+	 *
+	 * @param blockId The number that specifies the block to look up
+	 * @return page index that holds blockId
+	 */
+	public int get(int blockId) {
+		for (int i = slotOf(blockId); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == blockId) {
+				return values[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Maps blockId to pageIndex, replacing the previous mapping of blockId if there was one.
+	 *
+	 * @param blockId The number that specifies the block
+	 * @param pageIndex index for the page that holds the block
+	 */
+	public void put(int blockId, int pageIndex) {
+		int i = slotOf(blockId);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == blockId) {
+				values[i] = pageIndex;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = blockId;
+		values[i] = pageIndex;
+		size++;
+	}
+
+	/**
+	 * Removes the mapping of blockId if there is one.
+	 * The entries that follow in the same cluster are shifted back into the hole,
+	 * so that get() can keep stopping at the first empty slot.
+	 *
+	 * @param blockId The number that specifies the block to remove
+	 */
+	public void remove(int blockId) {
+		int hole = slotOf(blockId);
+		while (keys[hole] != blockId) {
+			if (keys[hole] == EMPTY) {
+				return;
+			}
+			hole = (hole + 1) & mask;
+		}
+
+		int i = hole;
+		while (true) {
+			i = (i + 1) & mask;
+			if (keys[i] == EMPTY) {
+				break;
+			}
+
+			// An entry may move back into the hole only if its home slot isn't
+			// located cyclically in (hole, i].
+			int home = slotOf(keys[i]);
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+
+		keys[hole] = EMPTY;
+		size--;
+	}
+
+	/**
+	 * Removes all the mappings.
+	 */
+	public void clear() {
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = EMPTY;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return the number of mappings
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ * BlockStore interface holds the contents of the Disk and keeps them in the DISK file.
+ * Callers hold the store's lock, so implementations don't need their own locking.
+ *
+ * Implementations:
+ *   HeapBlockStore   - keeps the disk in the heap, reading each block from the DISK file when first read (default)
+ *   MappedBlockStore - maps the DISK file into memory in segments (-DthreadOS.disk.store=mapped)
+ *   CompactBlockStore - keeps a compact image, DISK.z, with no space for blocks of zeros
+ *                       (-DthreadOS.disk.store=compact), and deflates the others (-DthreadOS.disk.store=deflate)
+ *
+ * ChecksummedBlockStore wraps either of them to check every block read (-DthreadOS.disk.checksums=true).
+ *
+ *
+ */
+
+
+import java.io.IOException;
+
+public interface BlockStore {
+
+	/**
+	 * Copies a block into buffer.
+	 *
+	 * @param blockId The number that specifies the block to read from
+	 * @param buffer array in which the data is going to be stored, at least blockSize long
+	 * @return false if the block is known to be corrupt
+	 */
+	boolean read(int blockId, byte buffer[]);
+
+	/**
+	 * Copies a block into buffer like read(), but without keeping a copy of it in memory that read() wouldn't keep,
+	 * for callers that sweep the whole disk once.
+	 *
+	 * @param blockId The number that specifies the block to read from
+	 * @param buffer array in which the data is going to be stored, at least blockSize long
+	 * @return false if the block is known to be corrupt
+	 */
+	boolean readThrough(int blockId, byte buffer[]);
+
+	/**
+	 * Copies buffer into a block.
+	 *
+	 * @param blockId The number that specifies the block to write to
+	 * @param buffer array that contains the data, at least blockSize long
+	 */
+	void write(int blockId, byte buffer[]);
+
+	/**
+	 * Makes the DISK file hold every block written so far.
+	 *
+	 * @throws IOException if the DISK file can't be written
+	 */
+	void sync() throws IOException;
+}
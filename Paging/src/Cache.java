@@ -6,119 +6,485 @@
  *
  *
  * Cache class implements a buffer cache that stores frequently accessed disk blocks in memory.
- * The buffer cache uses the enhanced second-chance algorithm to determine a victim page.
+ * The buffer cache uses the enhanced second-chance algorithm to determine a victim page by default;
+ * the clock, ARC and 2Q algorithms can be chosen instead when the cache is created (see ReplacementPolicy).
+ *
+ * The pages are split into one or more stripes. Each blockId belongs to exactly one stripe,
+ * and each stripe has its own pageTable, blockIndex, replacement policy and lock.
+ * A stripe's lock is held only while its bookkeeping is updated or a page is copied,
+ * never while a disk operation is in progress. A page whose disk operation is in progress is marked busy,
+ * so that a miss only blocks the threads that want the same block (or the block being evicted from that page).
+ * With a single stripe, the cache behaves like the original one with the lock released during disk I/O;
+ * with more stripes, threads working on different stripes don't contend at all.
+ *
+ * Optionally, a write-behind thread writes dirty pages back in the background: whenever the number of
+ * dirty pages exceeds a high watermark it writes them back until a low watermark is reached, and
+ * between times it writes back pages that have stayed dirty longer than a maximum age.
+ * A miss then usually finds a clean victim and pays for a single disk operation.
+ *
+ * Optionally, a read-ahead thread prefetches the blocks that follow a sequential stream of reads.
+ * The size of the read-ahead window adapts: it doubles each time a prefetched block is read,
+ * and halves each time a prefetched block is evicted without having been used.
+ *
+ * Everything the cache does is counted in a CacheStats object, which can be read with SysLib.cstat()
+ * or through JMX.
+ *
+ * The number of pages can be changed while the cache is in use (SysLib.cresize()). Growing adds free pages
+ * to every stripe at once. Shrinking writes back and evicts the pages at the end of each stripe one by one,
+ * waiting only for the disk operations already in progress on those pages.
+ * Either way, the replacement policy starts over with the blocks that remain.
  *
  *
  */
 
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Cache {
-	private Entry[] pageTable;			// page table in memory
+	private Stripe[] stripes;			// independent parts of the cache
 	private int blockSize;				// size of each data in a page
-	private int victimIndex;			// keeps track of index for victim page in the pageTable
+	private String policyName;			// replacement policy of every stripe
+	private volatile int pageCount;		// total number of pages in all the stripes
+	private AtomicInteger dirtyCount;	// number of dirty pages in all the stripes
+	private WriteBehind writeBehind;	// background write-back thread, or null
+	private ReadAhead readAhead;		// background prefetch thread, or null
+	private CacheStats stats;			// counters and latency histograms
 
 
 	/**
-	 * The constructor initializes the pageTable with Entry objects and set the victimIndex to the last page of pageTable.
+	 * The constructor creates a cache with a single stripe.
 	 * The blockSize is set to the passed-in parameter blockSizeParm.
-	 * 
+	 *
 	 * @param blockSizeParam The size of each data
 	 * @param pageTableLength The total number of entries in pageTable
 	 */
     public Cache(int blockSizeParam, int pageTableLength) {
-    	
-    	pageTable = new Entry[pageTableLength];
-    	for (int i = 0; i < pageTableLength; i++) {
-    		pageTable[i] = new Entry();
-    	}
-    	
+    	this(blockSizeParam, pageTableLength, 1);
+    }
+
+	/**
+	 * The constructor splits pageTableLength pages among stripeCount stripes as evenly as possible.
+	 * The blockSize is set to the passed-in parameter blockSizeParm.
+	 *
+	 * @param blockSizeParam The size of each data
+	 * @param pageTableLength The total number of entries in pageTable
+	 * @param stripeCount The number of stripes, each with its own lock
+	 */
+    public Cache(int blockSizeParam, int pageTableLength, int stripeCount) {
+    	this(blockSizeParam, pageTableLength, stripeCount, "esc");
+    }
+
+	/**
+	 * The constructor splits pageTableLength pages among stripeCount stripes as evenly as possible,
+	 * each of which chooses its victims with the named replacement policy.
+	 * The blockSize is set to the passed-in parameter blockSizeParm.
+	 *
+	 * @param blockSizeParam The size of each data
+	 * @param pageTableLength The total number of entries in pageTable
+	 * @param stripeCount The number of stripes, each with its own lock
+	 * @param policy "clock", "esc", "arc" or "2q"
+	 */
+    public Cache(int blockSizeParam, int pageTableLength, int stripeCount, String policy) {
+
     	blockSize = blockSizeParam;
-    	victimIndex = pageTableLength - 1;		// set to the last page in the pageTable
+    	policyName = policy;
+    	pageCount = pageTableLength;
+    	dirtyCount = new AtomicInteger(0);
+    	stats = new CacheStats();
+
+    	if (stripeCount < 1) {
+    		stripeCount = 1;
+    	}
+    	if (stripeCount > pageTableLength) {
+    		stripeCount = pageTableLength;
+    	}
+
+    	stripes = new Stripe[stripeCount];
+    	for (int i = 0; i < stripeCount; i++) {
+    		int length = pageTableLength / stripeCount + (i < pageTableLength % stripeCount ? 1 : 0);
+    		stripes[i] = new Stripe(length);
+    	}
     }
 
 
     /**
      * Each Entry object corresponds to each page in the pageTable.
+     * While busy is true, a thread is writing back or loading the page without holding the stripe's lock,
+     * and nobody else may touch the page.
      */
     private class Entry {
     	byte[] data;
     	int blockId;
-    	boolean referenceBit;
     	boolean dirtyBit;
-    	
+    	long dirtySince;		// time when the dirtyBit was last set
+    	boolean prefetched;		// loaded by read-ahead and not used yet
+    	boolean busy;
+
     	private Entry() {
     		data = new byte[blockSize];
     		blockId = -1;
-    		referenceBit = false;
     		dirtyBit = false;
+    		dirtySince = 0;
+    		prefetched = false;
+    		busy = false;
     	}
     }
 
     /**
-     * Finds a free page in the pageTable and returns its index. If not found, returns -1.
-     * 
-     * @return index for the free page
+     * Each Stripe object caches the blocks whose blockIds hash to it.
+     * All of its fields are guarded by its own monitor.
      */
-    private int findFreePage() {
-    	for (int i = 0; i < pageTable.length; i++) {
-    		if (pageTable[i].blockId != -1) {
-    			continue;
-    		}
-    		return i;
-    	}  	
-        return -1;
+    private class Stripe implements ReplacementPolicy.Pages {
+    	Entry[] pageTable;				// page table in memory
+    	ReplacementPolicy policy;		// chooses the victim pages
+    	BlockIndex blockIndex;			// blockId -> index for the page in the pageTable
+    	int[] freePages;				// stack of indices for the free pages in the pageTable
+    	int freeCount;					// number of indices in freePages
+    	int retiringFrom;				// pages at this index or above are being retired by a shrink
+
+    	/**
+    	 * Initializes the pageTable with Entry objects and creates the replacement policy.
+    	 * All the pages start out free, and the blockIndex starts out empty.
+    	 *
+    	 * @param pageTableLength The total number of entries in pageTable
+    	 */
+    	private Stripe(int pageTableLength) {
+        	pageTable = new Entry[pageTableLength];
+        	for (int i = 0; i < pageTableLength; i++) {
+        		pageTable[i] = new Entry();
+        	}
+
+        	policy = newPolicy(policyName, this, pageTableLength);
+
+        	// A page being evicted stays mapped to its old block as well as its new one.
+        	blockIndex = new BlockIndex(2 * pageTableLength);
+        	freePages = new int[pageTableLength];
+        	retiringFrom = pageTableLength;
+        	resetFreePages();
+    	}
+
+        /**
+         * Adds free pages to the end of the pageTable. The existing pages keep their indices,
+         * so the disk operations in progress on them are not disturbed.
+         * Must be called with the stripe's lock held.
+         *
+         * @param newLength The new number of pages, larger than the current one
+         */
+        private void grow(int newLength) {
+        	int oldLength = pageTable.length;
+        	pageTable = Arrays.copyOf(pageTable, newLength);
+        	freePages = Arrays.copyOf(freePages, newLength);
+        	for (int i = newLength - 1; i >= oldLength; i--) {
+        		pageTable[i] = new Entry();
+        		freePages[freeCount++] = i;
+        	}
+        	blockIndex.ensureCapacity(2 * newLength);
+        	retiringFrom = newLength;
+        	rebuildPolicy();
+        }
+
+        /**
+         * Takes the free pages at index newLength or above off the freePages stack,
+         * marking them busy so that nobody uses them again.
+         * Must be called with the stripe's lock held.
+         *
+         * @param newLength The number of pages to be kept
+         * @param retired set to true for each page index - newLength that has been taken
+         */
+        private void retireFreePages(int newLength, boolean[] retired) {
+        	retiringFrom = newLength;
+        	int kept = 0;
+        	for (int i = 0; i < freeCount; i++) {
+        		int index = freePages[i];
+        		if (index < newLength) {
+        			freePages[kept++] = index;
+        		} else {
+        			pageTable[index].busy = true;
+        			retired[index - newLength] = true;
+        		}
+        	}
+        	freeCount = kept;
+        }
+
+        /**
+         * Drops the pages at index newLength or above, all of which have been retired.
+         * Must be called with the stripe's lock held.
+         *
+         * @param newLength The number of pages to be kept
+         */
+        private void truncate(int newLength) {
+        	pageTable = Arrays.copyOf(pageTable, newLength);
+        	retiringFrom = newLength;
+        	rebuildPolicy();
+        }
+
+        /**
+         * Creates a new replacement policy that knows every page in use.
+         */
+        private void rebuildPolicy() {
+        	boolean[] free = new boolean[pageTable.length];
+        	for (int i = 0; i < freeCount; i++) {
+        		free[freePages[i]] = true;
+        	}
+
+        	policy = newPolicy(policyName, this, pageTable.length);
+        	for (int i = 0; i < pageTable.length; i++) {
+        		if (!free[i]) {
+        			policy.inserted(i, pageTable[i].blockId);
+        		}
+        	}
+        }
+
+        /**
+         * Marks every page in the pageTable as free, except the pages being retired by a shrink.
+         * The pages are pushed in reverse order so that they are handed out from index 0 upward.
+         */
+        private void resetFreePages() {
+        	for (int i = 0; i < retiringFrom; i++) {
+        		freePages[i] = retiringFrom - 1 - i;
+        	}
+        	freeCount = retiringFrom;
+        }
+
+        /**
+         * Pops a free page off the freePages stack and returns its index. If not found, returns -1.
+         *
+         * @return index for the free page
+         */
+        private int findFreePage() {
+        	if (freeCount == 0) {
+        		return -1;
+        	}
+        	return freePages[--freeCount];
+        }
+
+        public boolean isBusy(int page) {
+        	return pageTable[page].busy;
+        }
+
+        public boolean isDirty(int page) {
+        	return pageTable[page].dirtyBit;
+        }
+
+        public int blockIdOf(int page) {
+        	return pageTable[page].blockId;
+        }
+
+        /**
+         * Waits until some busy page of this stripe finishes its disk operation.
+         * A shrinking resize may have dropped the page meanwhile, so the waiter checks its index again.
+         */
+        private void waitForPage() {
+        	try {
+        		wait();
+        	} catch (InterruptedException e) {
+        	}
+        }
+
+        /**
+         * Claims a page for blockId, which is not in Cache. A free page is used if there is one.
+         * Otherwise, the next victim page is used. The page is marked busy and mapped to blockId in the blockIndex,
+         * while its old blockId stays mapped until the old data has been written back.
+         * If every page is busy, returns -1 (after waiting if wait is true), and the caller has to look blockId up again.
+         *
+         * @param blockId The number that specifies the block that is going to be stored
+         * @param wait whether to wait for a page when every page is busy
+         * @return index for the page
+         */
+        private int claimPage(int blockId, boolean wait) {
+
+            // Search for the free page in the page table.
+            int index = findFreePage();
+
+            // If there's no free page, choose the next victim page.
+            if (index == -1) {
+            	index = policy.victim(blockId);
+            	if (index == -1) {
+            		if (wait) {
+            			waitForPage();
+            		}
+            		return -1;
+            	}
+            	stats.count(CacheStats.EVICTIONS);
+            	if (pageTable[index].prefetched) {
+            		// read ahead for nothing
+            		pageTable[index].prefetched = false;
+            		readAhead.prefetchWasted();
+            	}
+            }
+
+            pageTable[index].busy = true;
+            blockIndex.put(blockId, index);
+            policy.inserted(index, blockId);
+            return index;
+        }
+
+        /**
+         * Finishes the disk operations on a busy page. The old blockId is dropped from the blockIndex,
+         * and the threads waiting for the page are woken up.
+         *
+         * @param index index for the page
+         * @param blockId The number that specifies the block now stored in the page
+         */
+        private void releasePage(int index, int blockId) {
+        	Entry entry = pageTable[index];
+        	if (entry.blockId != -1 && entry.blockId != blockId) {
+        		blockIndex.remove(entry.blockId);
+        	}
+        	entry.blockId = blockId;
+        	entry.busy = false;
+        	notifyAll();
+        }
+
+        /**
+         * Gives up on a busy page whose block couldn't be read. The block and the page's old block, which has been
+         * written back, are dropped from the blockIndex, the page is freed, and the threads waiting for it are woken up.
+         * The replacement policy is rebuilt, since it has no way to forget a single page.
+         * A page being retired by a shrink isn't freed, so that it isn't handed out past the end of the pageTable;
+         * the shrink retires it instead.
+         *
+         * @param index index for the page
+         * @param blockId The number that specifies the block that couldn't be read
+         */
+        private void discardPage(int index, int blockId) {
+        	Entry entry = pageTable[index];
+        	blockIndex.remove(blockId);
+        	if (entry.blockId != -1) {
+        		blockIndex.remove(entry.blockId);
+        	}
+        	entry.blockId = -1;
+        	entry.prefetched = false;
+        	entry.busy = false;
+        	if (index < retiringFrom) {
+        		freePages[freeCount++] = index;
+        	}
+        	rebuildPolicy();
+        	notifyAll();
+        }
+
+        /**
+         * Looks blockId up. If it is in Cache and not busy, returns its page index.
+         * If it is not in Cache, claims a page for it and returns -(index + 1); the caller owns the busy page
+         * and has to call releasePage() after its disk operations.
+         * Must be called with the stripe's lock held.
+         *
+         * @param blockId The number that specifies the block
+         * @return index for the page, or -(index + 1) for a newly claimed page
+         */
+        private int lookup(int blockId) {
+        	while (true) {
+        		int i = blockIndex.get(blockId);
+        		if (i != -1) {
+        			if (!pageTable[i].busy) {
+        				return i;
+        			}
+        			// The page is being loaded with blockId, or blockId is being evicted from it.
+        			waitForPage();
+        			continue;
+        		}
+
+        		i = claimPage(blockId, true);
+        		if (i != -1) {
+        			return -(i + 1);
+        		}
+        	}
+        }
     }
 
     /**
-     * Chooses the next victim page in the pageTable.
-     * It increments the victimIndex and checks to see if the page had been recently used.
-     * If the referenceBit is true, then flip the referenceBit and keep looping
-     * until it reaches the condition in which the referenceBit is false.
-     * 
-     * @return index for victim page
+     * Creates the replacement policy of a stripe. An unknown name falls back to the enhanced second-chance algorithm.
+     *
+     * @param name "clock", "esc", "arc" or "2q"
+     * @param pages state of the stripe's pages
+     * @param pageTableLength The total number of pages in the stripe
+     * @return the replacement policy
      */
-    private int nextVictim() {
-    	while (true) {
-    		victimIndex = (victimIndex + 1) % pageTable.length;
-    		if (!pageTable[victimIndex].referenceBit) {
-    			return victimIndex;
-    		}
-    		pageTable[victimIndex].referenceBit = false;
+    private static ReplacementPolicy newPolicy(String name, ReplacementPolicy.Pages pages, int pageTableLength) {
+    	if (name.equals("clock")) {
+    		return new ClockPolicy(pages, pageTableLength);
+    	} else if (name.equals("arc")) {
+    		return new ArcPolicy(pages, pageTableLength);
+    	} else if (name.equals("2q")) {
+    		return new TwoQueuePolicy(pages, pageTableLength);
+    	} else {
+    		return new EnhancedClockPolicy(pages, pageTableLength);
     	}
     }
 
     /**
-     * Writes back all the pages that have been modified.
+     * Returns the stripe that caches blockId.
+     *
+     * @param blockId The number that specifies the block
+     * @return stripe for blockId
+     */
+    private Stripe stripeOf(int blockId) {
+    	return stripes[stripeIndexOf(blockId)];
+    }
+
+    /**
+     * Returns the index of the stripe that caches blockId.
+     *
+     * @param blockId The number that specifies the block
+     * @return index in stripes
+     */
+    private int stripeIndexOf(int blockId) {
+    	// scramble blockId first so that blocks with a common stride don't all land in one stripe
+    	return ((blockId * 0x9E3779B9) >>> 16) % stripes.length;
+    }
+
+    /**
+     * Writes back the page if it has been modified.
      * If the dirtyBit is true, write the data back to the disk and flip the dirtyBit.
-     * 
-     * @param victimEntry index for the page whose dirtyBit will be checked in this method
+     * The page must be busy and owned by the calling thread.
+     *
+     * @param victimEntry the page whose dirtyBit will be checked in this method
      */
-    private void writeBack(int victimEntry) {
-    	if (pageTable[victimEntry].dirtyBit) {
-    		byte[] readFromCache = pageTable[victimEntry].data;
-    		SysLib.rawwrite(pageTable[victimEntry].blockId, readFromCache);
-    	
-    		pageTable[victimEntry].dirtyBit = false;
+    private void writeBack(Entry victimEntry) {
+    	if (victimEntry.dirtyBit) {
+    		byte[] readFromCache = victimEntry.data;
+    		SysLib.rawwrite(victimEntry.blockId, readFromCache);
+
+    		victimEntry.dirtyBit = false;
+    		dirtyCount.decrementAndGet();
+    		stats.count(CacheStats.WRITE_BACKS);
     	}
     }
-    
+
     /**
-     * Copies the original array to the newArray and returns it.
-     * 
-     * @param original array that is going to be copied from
-     * @return array that is going to be copied to
+     * Marks the page modified so that the data can be written back later.
+     * Wakes up the write-behind thread when the number of dirty pages goes over its high watermark.
+     * Must be called with the stripe's lock held.
+     *
+     * @param entry the page that has been modified
      */
-    private byte[] copyArray(byte original[]) {
-    	byte[] newArray = new byte[blockSize];
-    	System.arraycopy(original, 0, newArray, 0, blockSize);
-    	return newArray;
+    private void markDirty(Entry entry) {
+    	if (entry.dirtyBit) {
+    		return;
+    	}
+    	entry.dirtyBit = true;
+    	entry.dirtySince = System.currentTimeMillis();
+
+    	int dirty = dirtyCount.incrementAndGet();
+    	if (writeBehind != null && dirty > writeBehind.highWatermark()) {
+    		writeBehind.wakeUp();
+    	}
+    }
+
+    /**
+     * Copies the buffer array into the page's data array, which is allocated once when the Entry is created
+     * and reused for every block the page holds, so that a read or write never allocates an array.
+     *
+     * @param buffer array that is going to be copied from
+     * @param page data array of the page that is going to be copied to
+     */
+    private void writeIntoPage(byte buffer[], byte page[]) {
+    	System.arraycopy(buffer, 0, page, 0, blockSize);
     }
 
     /**
      * Copies the original array into the passed-in buffer array.
-     * 
+     *
      * @param original array that is going to be copied from
      * @param buffer array that is going to be copied to
      */
@@ -128,137 +494,783 @@ public class Cache {
 
 	/**
 	 * Reads into the buffer array the cache block specified by blockId from the disk cache if it is in cache.
-	 * Otherwise, reads the corresponding disk block from the disk device. 
-	 * 
+	 * Otherwise, reads the corresponding disk block from the disk device.
+	 *
 	 * @param blockId The number that specifies the block to read from
 	 * @param buffer array in which the data is going to be stored
 	 * @return Upon error, return false; otherwise return true.
 	 */
-    public synchronized boolean read(int blockId, byte buffer[]) {
-    	
+    public boolean read(int blockId, byte buffer[]) {
+    	long startNanos = System.nanoTime();
+    	boolean result = readBlock(blockId, buffer);
+    	stats.recordLatency(false, startNanos);
+    	return result;
+    }
+
+    private boolean readBlock(int blockId, byte buffer[]) {
+
         if (blockId < 0) {
             SysLib.cerr("Error: Invalid blockId \n");
             return false;
-            
-        } else {
-        
-	        for (int i = 0; i < pageTable.length; i++) {
-	            if (pageTable[i].blockId != blockId) {
-	            	continue;
-	            }
-	            
+        }
+
+        if (readAhead != null) {
+        	readAhead.observe(blockId);
+        }
+
+        Stripe stripe = stripeOf(blockId);
+        int index;
+        synchronized (stripe) {
+        	index = stripe.lookup(blockId);
+        	if (index >= 0) {
+
 	            // The specified block is in Cache.
 
 	            // Reads the block's data into the buffer array
-	            readIntoBuffer(pageTable[i].data, buffer);
-	            
-	            pageTable[i].referenceBit = true;
-	            
+	            readIntoBuffer(stripe.pageTable[index].data, buffer);
+
+	            stripe.policy.accessed(index);
+	            if (stripe.pageTable[index].prefetched) {
+	            	stripe.pageTable[index].prefetched = false;
+	            	readAhead.prefetchUsed();
+	            }
+	            stats.count(CacheStats.HITS);
+
 	            return true;
-	        }
-	        
-	        // The specified block is not in Cache.
-
-	        // Search for the free page in the page table.
-	        int index = findFreePage();
-	        
-	        // If there's no free page, choose the next victim page.
-	        if (index == -1) {
-	        	index = nextVictim();
-	        	
-	        	// If the data had been modified, then write it back to disk.
-		        writeBack(index);
-	        }
-	        
-	        // Fetch the data from the disk and store into the buffer array.
-	        SysLib.rawread(blockId, buffer);
-	        	        
+        	}
+        }
+
+        // The specified block is not in Cache, and the page claimed for it is busy.
+        stats.count(CacheStats.MISSES);
+        index = -index - 1;
+        Entry entry;
+        synchronized (stripe) {
+        	entry = stripe.pageTable[index];
+        }
+
+        // If the victim data had been modified, then write it back to disk.
+        writeBack(entry);
+
+        // Fetch the data from the disk and store into the buffer array.
+        if (SysLib.rawread(blockId, buffer) < 0) {
+        	// e.g. the block is corrupt; the page isn't kept for it
+        	synchronized (stripe) {
+        		stripe.discardPage(index, blockId);
+        	}
+        	return false;
+        }
+
+        synchronized (stripe) {
 	        // Write to the pageTable
-	        pageTable[index].data = copyArray(buffer);
-	        pageTable[index].blockId = blockId;
-	        pageTable[index].referenceBit = true;
-	
-	        return true;
+	        writeIntoPage(buffer, entry.data);
+	        stripe.releasePage(index, blockId);
         }
+
+        return true;
     }
 
     /**
      * Writes the buffer array contents to the cache block specified by blockId from the disk cache if it is in cache.
      * Otherwise, finds a free cache block and writes the buffer contents on it. No write through.
-     * 
+     *
      * @param blockId The number that specifies the block to write to
      * @param buffer array that contains the data for write operation
      * @return Upon error, return false; otherwise return true.
      */
-    public synchronized boolean write(int blockId, byte buffer[]) {
-    	
+    public boolean write(int blockId, byte buffer[]) {
+    	long startNanos = System.nanoTime();
+    	boolean result = writeBlock(blockId, buffer);
+    	stats.recordLatency(true, startNanos);
+    	return result;
+    }
+
+    private boolean writeBlock(int blockId, byte buffer[]) {
+
         if (blockId < 0) {
             SysLib.cerr("Error: Invalid blockId \n");
             return false;
+        }
+
+        Stripe stripe = stripeOf(blockId);
+        int index;
+        synchronized (stripe) {
+        	index = stripe.lookup(blockId);
+        	if (index >= 0) {
 
-        } else {
-	        
-	        for (int i = 0; i < pageTable.length; i++) {
-	            if (pageTable[i].blockId != blockId) {
-	            	continue;
-	            }
-	            
 	            // The specified block is in Cache.
-	            
+
 	            // Write to the pageTable
-	            pageTable[i].data = copyArray(buffer);
-	            pageTable[i].referenceBit = true;
-	            pageTable[i].dirtyBit = true;		// Mark the dirtyBit so that the data can be written back later
+	            writeIntoPage(buffer, stripe.pageTable[index].data);
+	            stripe.policy.accessed(index);
+	            stripe.pageTable[index].prefetched = false;
+	            stats.count(CacheStats.HITS);
+	            markDirty(stripe.pageTable[index]);		// Mark the dirtyBit so that the data can be written back later
 	            return true;
-	        }
-	        
-	        // The specified block is not in Cache.
-
-	        // Search for the free page in the page table.
-	        int index = findFreePage();
-
-	        // If there's no free page, choose the next victim page.
-	        if (index == -1) {
-	            index = nextVictim();
-	            
-		        // If the data had been modified, then write it back to disk.
-		        writeBack(index);
-	        }
-	        	        
+        	}
+        }
+
+        // The specified block is not in Cache, and the page claimed for it is busy.
+        stats.count(CacheStats.MISSES);
+        index = -index - 1;
+        Entry entry;
+        synchronized (stripe) {
+        	entry = stripe.pageTable[index];
+        }
+
+        // If the victim data had been modified, then write it back to disk.
+        writeBack(entry);
+
+        synchronized (stripe) {
 	        // Write to the pageTable
-	        pageTable[index].data = copyArray(buffer);
-	        pageTable[index].blockId = blockId;
-	        pageTable[index].referenceBit = true;
-	        pageTable[index].dirtyBit = true;		// Mark the dirtyBit so that the data can be written back later
-	        
-	        return true;
+	        writeIntoPage(buffer, entry.data);
+	        markDirty(entry);		// Mark the dirtyBit so that the data can be written back later
+	        stripe.releasePage(index, blockId);
         }
+
+        return true;
+    }
+
+    /**
+     * Reads the blocks listed in blocks into consecutive blockSize-byte slices of buffer.
+     * See transferv().
+     *
+     * @param blocks The numbers that specify the blocks to read from
+     * @param buffer array in which the data is going to be stored, at least blocks.length * blockSize long
+     * @return Upon error, return false; otherwise return true.
+     */
+    public boolean readv(int blocks[], byte buffer[]) {
+    	return transferv(blocks, buffer, false);
+    }
+
+    /**
+     * Writes consecutive blockSize-byte slices of buffer to the blocks listed in blocks.
+     * See transferv().
+     *
+     * @param blocks The numbers that specify the blocks to write to
+     * @param buffer array that contains the data, at least blocks.length * blockSize long
+     * @return Upon error, return false; otherwise return true.
+     */
+    public boolean writev(int blocks[], byte buffer[]) {
+    	return transferv(blocks, buffer, true);
+    }
+
+    /**
+     * Reads or writes a batch of blocks, taking each stripe's lock only twice for the whole batch.
+     * 1. Under each stripe's lock, hits are copied right away and a page is claimed for each miss.
+     *    A block whose page is busy, or for which no page can be claimed without waiting, is put off.
+     * 2. Without any lock, dirty victims are written back and missed blocks are read,
+     *    each in ascending block order so that the disk head sweeps once in each direction.
+     * 3. Under each stripe's lock, the claimed pages are released.
+     * 4. The blocks put off are transferred one by one with read() or write().
+     * A block that can't be read, e.g. because it is corrupt, is not kept in Cache, and the other blocks are still read.
+     *
+     * @param blocks The numbers that specify the blocks
+     * @param buffer array holding one blockSize-byte slice per block
+     * @param write whether to write the blocks rather than read them
+     * @return Upon error, return false; otherwise return true.
+     */
+    private boolean transferv(int blocks[], byte buffer[], boolean write) {
+    	if (buffer.length < blocks.length * blockSize) {
+    		SysLib.cerr("Error: buffer is too small for the blocks \n");
+    		return false;
+    	}
+    	for (int k = 0; k < blocks.length; k++) {
+    		if (blocks[k] < 0) {
+    			SysLib.cerr("Error: Invalid blockId \n");
+    			return false;
+    		}
+    		if (!write && readAhead != null) {
+    			readAhead.observe(blocks[k]);
+    		}
+    	}
+
+    	final int HIT = -1;
+    	final int PUT_OFF = -2;
+    	int[] claimed = new int[blocks.length];		// page claimed for each block, HIT or PUT_OFF
+    	Entry[] entries = new Entry[blocks.length];	// the claimed pages
+    	int[] stripeIndex = new int[blocks.length];
+    	for (int k = 0; k < blocks.length; k++) {
+    		stripeIndex[k] = stripeIndexOf(blocks[k]);
+    	}
+
+    	// 1. hits and claims
+    	int missCount = 0;
+    	for (int s = 0; s < stripes.length; s++) {
+    		Stripe stripe = stripes[s];
+    		synchronized (stripe) {
+    			for (int k = 0; k < blocks.length; k++) {
+    				if (stripeIndex[k] != s) {
+    					continue;
+    				}
+
+    				int index = stripe.blockIndex.get(blocks[k]);
+    				if (index != -1) {
+    					Entry entry = stripe.pageTable[index];
+    					if (entry.busy) {
+    						claimed[k] = PUT_OFF;
+    						continue;
+    					}
+    					if (write) {
+    						System.arraycopy(buffer, k * blockSize, entry.data, 0, blockSize);
+    						markDirty(entry);
+    						entry.prefetched = false;
+    					} else {
+    						System.arraycopy(entry.data, 0, buffer, k * blockSize, blockSize);
+    						if (entry.prefetched) {
+    							entry.prefetched = false;
+    							readAhead.prefetchUsed();
+    						}
+    					}
+    					stripe.policy.accessed(index);
+    					stats.count(CacheStats.HITS);
+    					claimed[k] = HIT;
+    					continue;
+    				}
+
+    				index = stripe.claimPage(blocks[k], false);
+    				if (index == -1) {
+    					claimed[k] = PUT_OFF;
+    					continue;
+    				}
+    				claimed[k] = index;
+    				entries[k] = stripe.pageTable[index];
+    				stats.count(CacheStats.MISSES);
+    				missCount++;
+    			}
+    		}
+    	}
+
+    	// 2. disk operations in ascending block order
+    	boolean result = true;
+    	boolean[] failed = new boolean[blocks.length];	// blocks that couldn't be read
+    	if (missCount > 0) {
+    		long[] victims = new long[missCount];
+    		long[] misses = new long[missCount];
+    		int n = 0;
+    		for (int k = 0; k < blocks.length; k++) {
+    			if (claimed[k] >= 0) {
+    				// (blockId, k) packed so that sorting orders by blockId
+    				victims[n] = ((long) entries[k].blockId << 32) | k;
+    				misses[n] = ((long) blocks[k] << 32) | k;
+    				n++;
+    			}
+    		}
+    		Arrays.sort(victims);
+    		Arrays.sort(misses);
+
+    		for (int i = 0; i < missCount; i++) {
+    			writeBack(entries[(int) victims[i]]);
+    		}
+    		for (int i = 0; i < missCount; i++) {
+    			int k = (int) misses[i];
+    			if (write) {
+    				System.arraycopy(buffer, k * blockSize, entries[k].data, 0, blockSize);
+    			} else {
+    				// The page is busy, so the block can be read right into it.
+    				if (SysLib.rawread(blocks[k], entries[k].data) < 0) {
+    					failed[k] = true;
+    					result = false;
+    					continue;
+    				}
+    				System.arraycopy(entries[k].data, 0, buffer, k * blockSize, blockSize);
+    			}
+    		}
+
+    		// 3. release the claimed pages
+    		for (int s = 0; s < stripes.length; s++) {
+    			Stripe stripe = stripes[s];
+    			synchronized (stripe) {
+    				for (int k = 0; k < blocks.length; k++) {
+    					if (stripeIndex[k] != s || claimed[k] < 0) {
+    						continue;
+    					}
+    					if (failed[k]) {
+    						stripe.discardPage(claimed[k], blocks[k]);
+    						continue;
+    					}
+    					if (write) {
+    						markDirty(entries[k]);
+    					}
+    					stripe.releasePage(claimed[k], blocks[k]);
+    				}
+    			}
+    		}
+    	}
+
+    	// 4. the blocks put off
+    	byte[] block = null;
+    	for (int k = 0; k < blocks.length; k++) {
+    		if (claimed[k] != PUT_OFF) {
+    			continue;
+    		}
+    		if (block == null) {
+    			block = new byte[blockSize];
+    		}
+    		if (write) {
+    			System.arraycopy(buffer, k * blockSize, block, 0, blockSize);
+    			writeBlock(blocks[k], block);
+    		} else if (readBlock(blocks[k], block)) {
+    			System.arraycopy(block, 0, buffer, k * blockSize, blockSize);
+    		} else {
+    			result = false;
+    		}
+    	}
+    	return result;
+    }
+
+    /**
+     * Writes back a page of the stripe if it is dirty and has been dirty since dirtyBefore or earlier.
+     * The page is marked busy while its data goes to disk, so that nobody modifies it in the meantime.
+     * If wait is false and the page is busy, it is skipped instead of waited for.
+     *
+     * @param stripe stripe that the page belongs to
+     * @param index index for the page
+     * @param dirtyBefore only a page whose dirtySince is not later than this is written back
+     * @param wait whether to wait for a busy page
+     * @return true if the page has been written back
+     */
+    private boolean writeBackPage(Stripe stripe, int index, long dirtyBefore, boolean wait) {
+    	Entry entry;
+    	synchronized (stripe) {
+    		while (true) {
+    			if (index >= stripe.pageTable.length) {
+    				// dropped by a shrinking resize
+    				return false;
+    			}
+    			entry = stripe.pageTable[index];
+    			if (!entry.busy) {
+    				break;
+    			}
+    			if (!wait) {
+    				return false;
+    			}
+    			stripe.waitForPage();
+    		}
+    		if (!entry.dirtyBit || entry.dirtySince > dirtyBefore) {
+    			return false;
+    		}
+    		entry.busy = true;
+    	}
+
+    	writeBack(entry);
+
+    	synchronized (stripe) {
+    		stripe.releasePage(index, entry.blockId);
+    	}
+    	return true;
+    }
+
+    /**
+     * Writes back every dirty page of the stripe.
+     *
+     * @param stripe stripe whose pages are written back
+     */
+    private void writeBackAll(Stripe stripe) {
+    	for (int i = 0; i < stripe.pageTable.length; i++) {
+    		writeBackPage(stripe, i, Long.MAX_VALUE, true);
+    	}
+    }
+
+    /**
+     * Starts a daemon thread that writes dirty pages back in the background.
+     *
+     * @param highPercent When more than this percentage of the pages are dirty, the thread starts writing them back
+     * @param lowPercent ... and keeps writing them back until no more than this percentage are dirty
+     * @param maxDirtyAge A page that has been dirty for this many milliseconds is written back anyway
+     */
+    public synchronized void startWriteBehind(int highPercent, int lowPercent, int maxDirtyAge) {
+    	if (writeBehind != null) {
+    		return;
+    	}
+    	writeBehind = new WriteBehind(highPercent, lowPercent, maxDirtyAge);
+    	writeBehind.start();
+    }
+
+    /**
+     * WriteBehind thread trickles dirty pages to disk so that misses seldom have to write back a victim.
+     * It sleeps for a quarter of the maximum dirty age at a time, or until a writer pushes the number of
+     * dirty pages over the high watermark. Pages that are busy are skipped rather than waited for.
+     */
+    private class WriteBehind extends Thread {
+    	private int highPercent;		// percentage of dirty pages that triggers a write-back
+    	private int lowPercent;			// percentage of dirty pages at which the write-back stops
+    	private int maxDirtyAge;		// milliseconds a page may stay dirty
+    	private boolean signaled;		// set by wakeUp()
+
+    	private WriteBehind(int high, int low, int maxAge) {
+    		highPercent = Math.max(high, 0);
+    		lowPercent = Math.min(Math.max(low, 0), highPercent);
+    		maxDirtyAge = Math.max(maxAge, 1);
+    		signaled = false;
+    		setDaemon(true);
+    	}
+
+    	/**
+    	 * @return number of dirty pages that triggers a write-back, following the current size of the cache
+    	 */
+    	private int highWatermark() {
+    		return pageCount * highPercent / 100;
+    	}
+
+    	/**
+    	 * @return number of dirty pages at which the write-back stops
+    	 */
+    	private int lowWatermark() {
+    		return pageCount * lowPercent / 100;
+    	}
+
+    	private synchronized void wakeUp() {
+    		signaled = true;
+    		notify();
+    	}
+
+    	private synchronized void sleepUntilWokenUp() {
+    		if (!signaled) {
+    			try {
+    				wait(Math.max(maxDirtyAge / 4, 10));
+    			} catch (InterruptedException e) {
+    			}
+    		}
+    		signaled = false;
+    	}
+
+    	public void run() {
+    		while (true) {
+    			sleepUntilWokenUp();
+
+    			// Write back the pages that have been dirty for too long.
+    			long dirtyBefore = System.currentTimeMillis() - maxDirtyAge;
+    			for (int s = 0; s < stripes.length; s++) {
+    				for (int i = 0; i < stripes[s].pageTable.length; i++) {
+    					writeBackPage(stripes[s], i, dirtyBefore, false);
+    				}
+    			}
+
+    			// Above the high watermark, write back any dirty page until the low watermark is reached.
+    			if (dirtyCount.get() > highWatermark()) {
+    				for (int s = 0; s < stripes.length && dirtyCount.get() > lowWatermark(); s++) {
+    					for (int i = 0; i < stripes[s].pageTable.length && dirtyCount.get() > lowWatermark(); i++) {
+    						writeBackPage(stripes[s], i, Long.MAX_VALUE, false);
+    					}
+    				}
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Changes the total number of pages, splitting them among the stripes as evenly as possible.
+     * Every stripe keeps at least one page.
+     *
+     * @param newPageCount The new total number of pages
+     * @return false if newPageCount is smaller than the number of stripes; otherwise true
+     */
+    public synchronized boolean resize(int newPageCount) {
+    	if (newPageCount < stripes.length) {
+    		return false;
+    	}
+
+    	for (int s = 0; s < stripes.length; s++) {
+    		Stripe stripe = stripes[s];
+    		int length = newPageCount / stripes.length + (s < newPageCount % stripes.length ? 1 : 0);
+    		int oldLength;
+    		synchronized (stripe) {
+    			oldLength = stripe.pageTable.length;
+    			if (length > oldLength) {
+    				stripe.grow(length);
+    			}
+    		}
+    		if (length < oldLength) {
+    			shrink(stripe, oldLength, length);
+    		}
+    	}
+    	pageCount = newPageCount;
+    	return true;
+    }
+
+    /**
+     * Shrinks the stripe to newLength pages. Each page at index newLength or above is retired in turn:
+     * after any disk operation in progress on it has finished, it is marked busy for good, written back if dirty,
+     * and its block is dropped from the blockIndex. Once every such page is retired, the pageTable is truncated.
+     * Meanwhile the other pages of the stripe go on serving reads and writes.
+     *
+     * @param stripe stripe to shrink
+     * @param oldLength The current number of pages
+     * @param newLength The new number of pages
+     */
+    private void shrink(Stripe stripe, int oldLength, int newLength) {
+    	boolean[] retired = new boolean[oldLength - newLength];
+    	synchronized (stripe) {
+    		stripe.retireFreePages(newLength, retired);
+    	}
+
+    	for (int i = newLength; i < oldLength; i++) {
+    		if (retired[i - newLength]) {
+    			continue;
+    		}
+
+    		Entry entry;
+    		synchronized (stripe) {
+    			entry = stripe.pageTable[i];
+    			while (entry.busy) {
+    				stripe.waitForPage();
+    			}
+    			entry.busy = true;
+    		}
+
+    		writeBack(entry);
+
+    		synchronized (stripe) {
+    			if (entry.blockId != -1) {
+    				stripe.blockIndex.remove(entry.blockId);
+    				entry.blockId = -1;
+    			}
+    			entry.prefetched = false;
+    			stripe.notifyAll();
+    		}
+    	}
+
+    	synchronized (stripe) {
+    		stripe.truncate(newLength);
+    		// wakes up the threads that were waiting for a retired page, which see it is gone
+    		stripe.notifyAll();
+    	}
     }
 
     /**
      * Writes back all dirty blocks to Disk.java and thereafter forces Disk.java
      * to write back all contents to the DISK file. It doesn't reset the contents in the pageTable.
      */
-    public synchronized void sync() {
-    	for (int i = 0; i < pageTable.length; i++) {
-    		writeBack(i);
+    public void sync() {
+    	long startNanos = System.nanoTime();
+    	for (int i = 0; i < stripes.length; i++) {
+    		writeBackAll(stripes[i]);
     	}
-    	
+
     	SysLib.sync();
+    	stats.countTimed(CacheStats.SYNCS, startNanos);
     }
 
     /**
      * Writes back all dirty blocks to Disk.java and thereafter forces Disk.java
      * to write back all contents to the DISK file. Resets all the entries in the pageTable.
+     * Pages that get dirty again during the write-back are written back as well before they are reset.
      */
-    public synchronized void flush() {
-    	for (int i = 0; i < pageTable.length; i++) {
-    		writeBack(i);
-    		pageTable[i].blockId = -1;
-    		pageTable[i].referenceBit = false;
-    		pageTable[i].dirtyBit = false;
-    	}
-    	
+    public void flush() {
+    	long startNanos = System.nanoTime();
+    	for (int s = 0; s < stripes.length; s++) {
+    		Stripe stripe = stripes[s];
+    		writeBackAll(stripe);
+
+    		// Pages modified again after writeBackAll() are marked busy and written back with the lock released,
+    		// until the stripe has no dirty page left; then it is reset under the lock.
+    		while (true) {
+    			List<Entry> dirty = new ArrayList<Entry>();
+    			synchronized (stripe) {
+    				for (int i = 0; i < stripe.pageTable.length; i++) {
+    					if (stripe.pageTable[i].busy) {
+    						stripe.waitForPage();
+    						i = -1;		// start over since the other pages may have changed while waiting
+    					}
+    				}
+
+    				for (int i = 0; i < stripe.pageTable.length; i++) {
+    					Entry entry = stripe.pageTable[i];
+    					if (entry.dirtyBit) {
+    						entry.busy = true;
+    						dirty.add(entry);
+    					}
+    				}
+
+    				if (dirty.isEmpty()) {
+    					for (int i = 0; i < stripe.pageTable.length; i++) {
+    						Entry entry = stripe.pageTable[i];
+    						entry.blockId = -1;
+    						entry.prefetched = false;
+    					}
+    					stripe.blockIndex.clear();
+    					stripe.policy.reset();
+    					stripe.resetFreePages();
+    					break;
+    				}
+    			}
+
+    			for (Entry entry : dirty) {
+    				writeBack(entry);
+    			}
+
+    			synchronized (stripe) {
+    				for (Entry entry : dirty) {
+    					entry.busy = false;
+    				}
+    				stripe.notifyAll();
+    			}
+    		}
+    	}
+
     	SysLib.sync();
+    	stats.countTimed(CacheStats.FLUSHES, startNanos);
+    }
+
+    /**
+     * @return the counters of this cache
+     */
+    public CacheStats getStats() {
+    	return stats;
+    }
+
+    /**
+     * Loads blockId into the cache unless it is already there. Used by the read-ahead thread,
+     * so that a dirty victim is written back by that thread rather than by a reader.
+     *
+     * @param blockId The number that specifies the block to prefetch
+     */
+    private void prefetch(int blockId) {
+        Stripe stripe = stripeOf(blockId);
+        int index;
+        Entry entry;
+        synchronized (stripe) {
+        	if (stripe.blockIndex.get(blockId) != -1) {
+        		return;
+        	}
+        	index = stripe.claimPage(blockId, false);
+        	if (index == -1) {
+        		return;
+        	}
+        	entry = stripe.pageTable[index];
+        }
+
+        // The page is busy, so the block can be read right into it.
+        writeBack(entry);
+        if (SysLib.rawread(blockId, entry.data) < 0) {
+        	synchronized (stripe) {
+        		stripe.discardPage(index, blockId);
+        	}
+        	return;
+        }
+
+        stats.count(CacheStats.PREFETCHES);
+        synchronized (stripe) {
+        	entry.prefetched = true;
+        	stripe.releasePage(index, blockId);
+        }
+    }
+
+    /**
+     * Starts a daemon thread that prefetches the blocks following sequential reads.
+     *
+     * @param maxWindow The maximum number of blocks read ahead of a stream
+     * @param diskBlocks The number of blocks on the disk, none of which is prefetched past
+     */
+    public synchronized void startReadAhead(int maxWindow, int diskBlocks) {
+    	if (readAhead != null) {
+    		return;
+    	}
+    	readAhead = new ReadAhead(Math.max(1, Math.min(maxWindow, pageCount / 2)), diskBlocks);
+    	readAhead.start();
+    }
+
+    /**
+     * ReadAhead thread detects sequential streams of reads and prefetches the blocks ahead of them.
+     * A stream is remembered by the block expected next; a read of that block advances the stream
+     * and asks for the blocks up to window blocks ahead of it. The last STREAMS streams are tracked,
+     * so a few interleaved sequential readers are all recognized.
+     */
+    private class ReadAhead extends Thread {
+    	private static final int STREAMS = 8;
+    	private static final int QUEUE_LENGTH = 64;
+
+    	private int[] nextBlock;		// block expected next in each stream, or -1
+    	private int[] prefetchedTo;		// last block requested for each stream
+    	private int nextStream;			// stream slot to be replaced by a new stream
+    	private int window;				// current number of blocks to read ahead
+    	private int maxWindow;			// upper limit of window
+    	private int diskBlocks;			// number of blocks on the disk
+    	private int[] queue;			// blocks waiting to be prefetched (ring buffer)
+    	private int queueHead;			// index of the oldest block in queue
+    	private int queueSize;			// number of blocks in queue
+
+    	private ReadAhead(int max, int blocks) {
+    		nextBlock = new int[STREAMS];
+    		prefetchedTo = new int[STREAMS];
+    		for (int i = 0; i < STREAMS; i++) {
+    			nextBlock[i] = -1;
+    			prefetchedTo[i] = -1;
+    		}
+    		nextStream = 0;
+    		maxWindow = max;
+    		diskBlocks = blocks;
+    		window = Math.min(2, maxWindow);
+    		queue = new int[QUEUE_LENGTH];
+    		queueHead = 0;
+    		queueSize = 0;
+    		setDaemon(true);
+    	}
+
+    	/**
+    	 * Records a read of blockId. If it continues a stream, queues the blocks up to window blocks ahead.
+    	 * Otherwise starts a new stream expecting blockId + 1.
+    	 *
+    	 * @param blockId The number that specifies the block being read
+    	 */
+    	private synchronized void observe(int blockId) {
+    		for (int i = 0; i < STREAMS; i++) {
+    			if (nextBlock[i] != blockId) {
+    				continue;
+    			}
+
+    			nextBlock[i] = blockId + 1;
+    			int from = Math.max(prefetchedTo[i], blockId) + 1;
+    			int to = Math.min(blockId + window, diskBlocks - 1);
+    			for (int b = from; b <= to && queueSize < QUEUE_LENGTH; b++) {
+    				queue[(queueHead + queueSize++) % QUEUE_LENGTH] = b;
+    				prefetchedTo[i] = b;
+    			}
+    			notify();
+    			return;
+    		}
+
+    		nextBlock[nextStream] = blockId + 1;
+    		prefetchedTo[nextStream] = blockId;
+    		nextStream = (nextStream + 1) % STREAMS;
+    	}
+
+    	/**
+    	 * Called when a prefetched block is read. Doubles the window.
+    	 */
+    	private synchronized void prefetchUsed() {
+    		window = Math.min(window * 2, maxWindow);
+    	}
+
+    	/**
+    	 * Called when a prefetched block is evicted without having been read. Halves the window.
+    	 */
+    	private synchronized void prefetchWasted() {
+    		window = Math.max(window / 2, 1);
+    	}
+
+    	/**
+    	 * Waits for a block to prefetch and removes it from the queue.
+    	 *
+    	 * @return blockId to prefetch
+    	 */
+    	private synchronized int takeBlock() {
+    		while (queueSize == 0) {
+    			try {
+    				wait();
+    			} catch (InterruptedException e) {
+    			}
+    		}
+    		int blockId = queue[queueHead];
+    		queueHead = (queueHead + 1) % QUEUE_LENGTH;
+    		queueSize--;
+    		return blockId;
+    	}
+
+    	public void run() {
+    		while (true) {
+    			prefetch(takeBlock());
+    		}
+    	}
     }
 }
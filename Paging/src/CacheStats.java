@@ -0,0 +1,190 @@
+/**
+ *
+ * CacheStats class counts what the Cache does: hits, misses, evictions, dirty write-backs, prefetches,
+ * the number and total duration of syncs and flushes, and a latency histogram of reads and writes.
+ * The counters are LongAdders, which spread concurrent increments over several cells,
+ * so that counting doesn't become a point of contention between the cache's stripes.
+ *
+ * Latency bucket 0 counts operations that took less than 1 microsecond, and bucket k (k >= 1) counts those
+ * that took from 2^(k-1) up to 2^k microseconds. The last bucket also counts anything slower.
+ *
+ * SysLib.cstat(long stats[]) copies the counters into stats in the order given by the index constants below,
+ * followed by the LATENCY_BUCKETS read buckets and the LATENCY_BUCKETS write buckets,
+ * as far as stats is long enough.
+ *
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class CacheStats implements CacheStatsMBean {
+	public static final int HITS = 0;
+	public static final int MISSES = 1;
+	public static final int EVICTIONS = 2;
+	public static final int WRITE_BACKS = 3;
+	public static final int PREFETCHES = 4;
+	public static final int SYNCS = 5;
+	public static final int SYNC_MICROS = 6;
+	public static final int FLUSHES = 7;
+	public static final int FLUSH_MICROS = 8;
+	public static final int COUNTERS = 9;			// number of counters before the histograms
+
+	public static final int LATENCY_BUCKETS = 24;	// up to about 8 seconds
+
+	private LongAdder[] counters;
+	private LongAdder[] readLatency;
+	private LongAdder[] writeLatency;
+
+
+	public CacheStats() {
+		counters = newAdders(COUNTERS);
+		readLatency = newAdders(LATENCY_BUCKETS);
+		writeLatency = newAdders(LATENCY_BUCKETS);
+	}
+
+	private static LongAdder[] newAdders(int length) {
+		LongAdder[] adders = new LongAdder[length];
+		for (int i = 0; i < length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Adds 1 to the counter.
+	 *
+	 * @param counter index of the counter, e.g. HITS
+	 */
+	public void count(int counter) {
+		counters[counter].increment();
+	}
+
+	/**
+	 * Adds 1 to the counter and the elapsed time since startNanos to the duration counter after it.
+	 *
+	 * @param counter SYNCS or FLUSHES
+	 * @param startNanos System.nanoTime() when the operation started
+	 */
+	public void countTimed(int counter, long startNanos) {
+		counters[counter].increment();
+		counters[counter + 1].add((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Records the latency of a read or a write that started at startNanos.
+	 *
+	 * @param write whether the operation was a write
+	 * @param startNanos System.nanoTime() when the operation started
+	 */
+	public void recordLatency(boolean write, long startNanos) {
+		long micros = (System.nanoTime() - startNanos) / 1000;
+		int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+		(write ? writeLatency : readLatency)[bucket].increment();
+	}
+
+	/**
+	 * Copies the counters and the histograms into stats, as far as stats is long enough.
+	 *
+	 * @param stats array that is going to be copied to
+	 */
+	public void snapshot(long stats[]) {
+		int n = 0;
+		for (int i = 0; i < COUNTERS && n < stats.length; i++) {
+			stats[n++] = counters[i].sum();
+		}
+		for (int i = 0; i < LATENCY_BUCKETS && n < stats.length; i++) {
+			stats[n++] = readLatency[i].sum();
+		}
+		for (int i = 0; i < LATENCY_BUCKETS && n < stats.length; i++) {
+			stats[n++] = writeLatency[i].sum();
+		}
+	}
+
+	/**
+	 * Registers this object with the platform MBean server as "threadOS:type=Cache".
+	 * Replaces the one registered by an earlier boot, if any.
+	 */
+	public void register() {
+		try {
+			ObjectName name = new ObjectName("threadOS:type=Cache");
+			if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		} catch (JMException e) {
+			System.err.println("threadOS: cache statistics are not available through JMX: " + e);
+		}
+	}
+
+	private static long[] sums(LongAdder[] adders) {
+		long[] values = new long[adders.length];
+		for (int i = 0; i < adders.length; i++) {
+			values[i] = adders[i].sum();
+		}
+		return values;
+	}
+
+	public long getHits() {
+		return counters[HITS].sum();
+	}
+
+	public long getMisses() {
+		return counters[MISSES].sum();
+	}
+
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0.0 : 1.0 * hits / total;
+	}
+
+	public long getEvictions() {
+		return counters[EVICTIONS].sum();
+	}
+
+	public long getWriteBacks() {
+		return counters[WRITE_BACKS].sum();
+	}
+
+	public long getPrefetches() {
+		return counters[PREFETCHES].sum();
+	}
+
+	public long getSyncs() {
+		return counters[SYNCS].sum();
+	}
+
+	public long getSyncMillis() {
+		return counters[SYNC_MICROS].sum() / 1000;
+	}
+
+	public long getFlushes() {
+		return counters[FLUSHES].sum();
+	}
+
+	public long getFlushMillis() {
+		return counters[FLUSH_MICROS].sum() / 1000;
+	}
+
+	public long[] getReadLatencyHistogram() {
+		return sums(readLatency);
+	}
+
+	public long[] getWriteLatencyHistogram() {
+		return sums(writeLatency);
+	}
+
+	public void reset() {
+		for (int i = 0; i < COUNTERS; i++) {
+			counters[i].reset();
+		}
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			readLatency[i].reset();
+			writeLatency[i].reset();
+		}
+	}
+}
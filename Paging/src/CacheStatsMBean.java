@@ -0,0 +1,36 @@
+/**
+ *
+ * CacheStatsMBean interface is the JMX view of CacheStats, registered as "threadOS:type=Cache",
+ * so that the counters of a running ThreadOS can be read with jconsole or any other JMX client.
+ *
+ *
+ */
+
+
+public interface CacheStatsMBean {
+	long getHits();
+	long getMisses();
+	double getHitRatio();
+	long getEvictions();
+	long getWriteBacks();
+	long getPrefetches();
+	long getSyncs();
+	long getSyncMillis();
+	long getFlushes();
+	long getFlushMillis();
+
+	/**
+	 * @return number of reads whose latency fell in each bucket (see CacheStats)
+	 */
+	long[] getReadLatencyHistogram();
+
+	/**
+	 * @return number of writes whose latency fell in each bucket (see CacheStats)
+	 */
+	long[] getWriteLatencyHistogram();
+
+	/**
+	 * Sets every counter back to 0.
+	 */
+	void reset();
+}
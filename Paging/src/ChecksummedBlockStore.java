@@ -0,0 +1,219 @@
+/**
+ *
+ * ChecksummedBlockStore class keeps a CRC32C (or a CRC32, before Java 9) of every block of another BlockStore, and checks it on every read,
+ * so that a block damaged in the DISK file is reported instead of being handed to a program.
+ * The checksums are kept in an int array, and in a side file next to the DISK file (DISK.crc, 4 bytes per block)
+ * that sync() writes along with the blocks, followed by a clean marker once both are forced.
+ * The first write after a sync removes the marker before it changes the block, since a MappedBlockStore's blocks
+ * can reach the DISK file before the next sync does. So if ThreadOS is killed, quit without a sync, or crashes
+ * during one, the marker is missing and the checksums are computed from the blocks at boot, rather than
+ * trusting a side file older than the blocks (a block damaged while ThreadOS was down goes unnoticed then).
+ *
+ * CRC32C is computed by the JDK's intrinsic, a few hundred nanoseconds per block, so it can be left on.
+ * It exists from Java 9 on, so it is looked up by reflection, and ThreadOS still runs on Java 8 with CRC32.
+ * The clean marker tells which of the two wrote the side file, so that switching JDKs recomputes the checksums
+ * rather than reporting every block as corrupt.
+ * The Scrubber calls verify() to check the blocks no program reads.
+ *
+ *
+ */
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+public class ChecksummedBlockStore implements BlockStore {
+	private static final int CLEAN_CRC32C = 0x43524321;	// marker after CRC32C checksums, "CRC!"
+	private static final int CLEAN_CRC32 = 0x43524333;	// marker after CRC32 checksums, "CRC3"
+
+	private BlockStore blocks;			// the checksummed store
+	private int blockSize;				// bytes per block
+	private Checksum crc;				// CRC32C, or CRC32 where the JDK has no CRC32C
+	private int cleanMarker;			// the clean marker of crc's checksums
+	private int[] checksums;			// checksum of each block
+	private BitSet dirtyChecksums;		// checksums changed since the last sync
+	private FileChannel file;			// the side file
+	private long markerPosition;		// where the clean marker goes in the side file
+	private boolean clean;				// whether the side file has the marker
+	private byte[] scratch;				// block read by verify()
+	private long corruptBlocks;			// reads and verifications that found a wrong checksum
+	private long verifiedBlocks;		// blocks verified for the Scrubber
+
+
+	/**
+	 * The constructor loads the checksums from the side file, or computes them.
+	 *
+	 * @param blocks The BlockStore to checksum
+	 * @param blockCount The number of blocks
+	 * @param blockSize The number of bytes per block
+	 * @param fileName The side file
+	 * @throws IOException if the side file can't be opened or read
+	 */
+	public ChecksummedBlockStore(BlockStore blocks, int blockCount, int blockSize, String fileName)
+			throws IOException {
+		this.blocks = blocks;
+		this.blockSize = blockSize;
+		checksums = new int[blockCount];
+		dirtyChecksums = new BitSet(blockCount);
+		scratch = new byte[blockSize];
+		corruptBlocks = 0;
+		verifiedBlocks = 0;
+		initChecksum();
+
+		file = new RandomAccessFile(fileName, "rw").getChannel();
+		markerPosition = (long) blockCount * 4;
+		clean = false;
+		if (file.size() == markerPosition + 4) {
+			ByteBuffer buffer = ByteBuffer.allocate(blockCount * 4 + 4);
+			while (buffer.hasRemaining() && file.read(buffer, buffer.position()) > 0) {
+			}
+			buffer.flip();
+			buffer.asIntBuffer().get(checksums);
+			clean = buffer.getInt(blockCount * 4) == cleanMarker;
+		}
+		if (!clean) {
+			file.truncate(markerPosition);
+			file.force(false);
+			for (int i = 0; i < blockCount; i++) {
+				blocks.readThrough(i, scratch);
+				checksums[i] = checksum(scratch);
+			}
+			dirtyChecksums.set(0, blockCount);
+			SysLib.cerr("threadOS: checksums of " + fileName + " computed\n");
+		}
+	}
+
+	/**
+	 * Copies a block into buffer, and checks its checksum.
+	 *
+	 * @return false if the block is corrupt
+	 */
+	public boolean read(int blockId, byte buffer[]) {
+		return check(blockId, buffer, blocks.read(blockId, buffer));
+	}
+
+	public boolean readThrough(int blockId, byte buffer[]) {
+		return check(blockId, buffer, blocks.readThrough(blockId, buffer));
+	}
+
+	public void write(int blockId, byte buffer[]) {
+		if (clean) {
+			// the block may reach the DISK file before the next sync
+			try {
+				file.truncate(markerPosition);
+				file.force(false);
+			} catch (IOException e) {
+				SysLib.cerr("threadOS: the clean marker of the checksums can't be removed: " + e + "\n");
+			}
+			clean = false;
+		}
+		blocks.write(blockId, buffer);
+		checksums[blockId] = checksum(buffer);
+		dirtyChecksums.set(blockId);
+	}
+
+	/**
+	 * Syncs the blocks, writes the changed checksums to the side file and forces them,
+	 * and then marks the side file clean.
+	 *
+	 * @throws IOException if the DISK file or the side file can't be written
+	 */
+	public void sync() throws IOException {
+		blocks.sync();
+		if (clean) {
+			return;
+		}
+
+		int first = dirtyChecksums.nextSetBit(0);
+		while (first >= 0) {
+			int end = dirtyChecksums.nextClearBit(first);
+			ByteBuffer run = ByteBuffer.allocate((end - first) * 4);
+			run.asIntBuffer().put(checksums, first, end - first);
+			long position = (long) first * 4;
+			while (run.hasRemaining()) {
+				position += file.write(run, position);
+			}
+			dirtyChecksums.clear(first, end);
+			first = dirtyChecksums.nextSetBit(end);
+		}
+		file.force(false);
+
+		ByteBuffer marker = ByteBuffer.allocate(4).putInt(0, cleanMarker);
+		while (marker.hasRemaining()) {
+			file.write(marker, markerPosition + marker.position());
+		}
+		file.force(false);
+		clean = true;
+	}
+
+	/**
+	 * Reads a block and checks its checksum, for the Scrubber.
+	 * The block is read through, so that a sweep doesn't bring the whole disk into memory.
+	 *
+	 * @param blockId The number that specifies the block
+	 * @return false if the block is corrupt
+	 */
+	public boolean verify(int blockId) {
+		verifiedBlocks++;
+		return readThrough(blockId, scratch);
+	}
+
+	/**
+	 * @return the number of reads and verifications that found a wrong checksum
+	 */
+	public long getCorruptBlocks() {
+		return corruptBlocks;
+	}
+
+	/**
+	 * @return the number of blocks verified for the Scrubber
+	 */
+	public long getVerifiedBlocks() {
+		return verifiedBlocks;
+	}
+
+	/**
+	 * @param blockId The number that specifies the block read
+	 * @param buffer the block read
+	 * @param read whether the block could be read
+	 * @return false if the block couldn't be read or is corrupt
+	 */
+	private boolean check(int blockId, byte buffer[], boolean read) {
+		if (!read) {
+			return false;
+		}
+		if (checksum(buffer) != checksums[blockId]) {
+			corrupt(blockId);
+			return false;
+		}
+		return true;
+	}
+
+	private void corrupt(int blockId) {
+		corruptBlocks++;
+		SysLib.cerr("threadOS: block " + blockId + " is corrupt\n");
+	}
+
+	/**
+	 * Looks up CRC32C, which exists from Java 9 on, and falls back to CRC32 without it.
+	 */
+	private void initChecksum() {
+		try {
+			crc = (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+			cleanMarker = CLEAN_CRC32C;
+		} catch (Exception e) {
+			crc = new CRC32();
+			cleanMarker = CLEAN_CRC32;
+		}
+	}
+
+	private int checksum(byte data[]) {
+		crc.reset();
+		crc.update(data, 0, blockSize);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ *
+ * ClassicModel class is the timing of the original ThreadOS disk: every request takes transferTime,
+ * plus delayPerTrack for every track of trackSize blocks the head crosses, even for the block next to the head.
+ *
+ *
+ */
+
+
+public class ClassicModel implements DeviceModel {
+	private static final int trackSize = 10;
+	private static final long transferNanos = 20000000L;
+	private static final long delayPerTrackNanos = 1000000L;
+
+
+	public long serviceNanos(int command, int blockId, int headBlockId) {
+		return transferNanos + delayPerTrackNanos * Math.abs(blockId / trackSize - headBlockId / trackSize);
+	}
+
+	public int parallelism() {
+		return 1;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ * ClockPolicy class implements the second-chance algorithm with a single reference bit.
+ * The dirtyBit is not taken into account, so a dirty page is as likely to be evicted as a clean one.
+ *
+ *
+ */
+
+
+public class ClockPolicy implements ReplacementPolicy {
+	private Pages pages;				// state of the stripe's pages
+	private boolean[] referenceBit;		// whether each page had been recently used
+	private int victimIndex;			// keeps track of index for victim page
+
+
+	/**
+	 * The constructor sets the victimIndex to the last page, so that the clock starts at page 0.
+	 *
+	 * @param pages state of the stripe's pages
+	 * @param pageTableLength The total number of pages
+	 */
+	public ClockPolicy(Pages pages, int pageTableLength) {
+		this.pages = pages;
+		referenceBit = new boolean[pageTableLength];
+		victimIndex = pageTableLength - 1;
+	}
+
+	public void accessed(int page) {
+		referenceBit[page] = true;
+	}
+
+	public void inserted(int page, int blockId) {
+		referenceBit[page] = true;
+	}
+
+	/**
+	 * Chooses the next victim page.
+	 * It increments the victimIndex and checks to see if the page had been recently used.
+	 * If the referenceBit is true, then flip the referenceBit and keep looping
+	 * until it reaches the condition in which the referenceBit is false.
+	 * Busy pages are skipped. If every page is busy, returns -1.
+	 *
+	 * @return index for victim page
+	 */
+	public int victim(int blockId) {
+		for (int i = 0; i < 2 * referenceBit.length; i++) {
+			victimIndex = (victimIndex + 1) % referenceBit.length;
+			if (pages.isBusy(victimIndex)) {
+				continue;
+			}
+			if (!referenceBit[victimIndex]) {
+				return victimIndex;
+			}
+			referenceBit[victimIndex] = false;
+		}
+		return -1;
+	}
+
+	public void reset() {
+		for (int i = 0; i < referenceBit.length; i++) {
+			referenceBit[i] = false;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ *
+ * CompactBlockStore class keeps the disk in a compact image, DISK.z, instead of a full-size DISK file.
+ * A block of zeros takes no space, it is a hole, and with compression on, the other blocks are deflated
+ * unless that doesn't make them smaller. Most blocks of a freshly formatted or sparsely used disk are zeros,
+ * so the image is a fraction of the size of the disk.
+ *
+ * DISK.z: header (magic, blockCount, blockSize), index, data
+ *   The index holds an entry per block, its offset in the file (long) and length (int); length 0 is a hole,
+ *   length blockSize is a block stored as it is, and anything shorter is a deflated block.
+ *   The data is appended: sync() writes the blocks written since the last sync at the end of the file,
+ *   forces them, then writes their index entries, so its cost depends on the compressed size of the changed data.
+ *   The space of overwritten blocks is reclaimed by rewriting the image when it exceeds the live data.
+ *
+ * Reads go to the file through the index, and are inflated, so the Cache in front of the disk matters more.
+ * If there is a DISK file but no DISK.z, or a DISK.z older than the DISK file (another BlockStore has written
+ * the DISK file since), the DISK file is converted at boot. It is converted into DISK.z.new, which replaces DISK.z
+ * once it is complete, so that a conversion cut short leaves no partial image behind.
+ *
+ *
+ */
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompactBlockStore implements BlockStore {
+	private static final int MAGIC = 0x544f535a;		// "TOSZ"
+	private static final int HEADER_BYTES = 12;
+	private static final int ENTRY_BYTES = 12;			// index entry: offset and length
+	private static final long MIN_GARBAGE_BYTES = 1 << 20;	// garbage below this is never reclaimed
+	private static final int IMPORT_BATCH = 4096;		// blocks converted between syncs
+
+	private int blockSize;				// bytes per block
+	private int blockCount;				// number of blocks
+	private boolean compressed;			// whether to deflate the blocks
+	private String fileName;			// the image, DISK.z
+	private FileChannel file;
+
+	private long[] offsets;				// the index: where each block's data is
+	private int[] lengths;				// and how long it is
+	private long dataEnd;				// where the next data is appended
+	private long liveBytes;				// bytes of data the index refers to
+	private TreeMap<Integer, byte[]> unsynced;	// data of the blocks written since the last sync
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] encoded;				// deflated block, or block read from the file
+
+
+	/**
+	 * The constructor opens the image and loads its index. The image is created, by converting the DISK file
+	 * if there is one, when there is no image or the DISK file is newer.
+	 *
+	 * @param blockCount The number of blocks
+	 * @param blockSize The number of bytes per block
+	 * @param diskFileName The DISK file; the image is diskFileName.z
+	 * @param compressed whether to deflate the blocks
+	 * @throws IOException if the image can't be opened, read or created
+	 */
+	public CompactBlockStore(int blockCount, int blockSize, String diskFileName, boolean compressed)
+			throws IOException {
+		this.blockSize = blockSize;
+		this.blockCount = blockCount;
+		this.compressed = compressed;
+		fileName = diskFileName + ".z";
+		offsets = new long[blockCount];
+		lengths = new int[blockCount];
+		unsynced = new TreeMap<Integer, byte[]>();
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		inflater = new Inflater();
+		encoded = new byte[blockSize];
+
+		File image = new File(fileName);
+		File disk = new File(diskFileName);
+		boolean stale = image.exists() && disk.exists() && disk.lastModified() > image.lastModified();
+		if (stale) {
+			SysLib.cerr("threadOS: " + diskFileName + " is newer than " + fileName + "\n");
+		}
+		if (image.exists() && !stale) {
+			file = new RandomAccessFile(fileName, "rw").getChannel();
+			load();
+		} else if (disk.exists()) {
+			convert(diskFileName);
+		} else {
+			file = new RandomAccessFile(fileName, "rw").getChannel();
+			create();
+			SysLib.cerr("threadOS: " + fileName + " created\n");
+		}
+	}
+
+	public boolean read(int blockId, byte buffer[]) {
+		byte[] data = unsynced.get(blockId);
+		if (data != null) {
+			return decode(data, data.length, buffer);
+		}
+
+		int length = lengths[blockId];
+		if (length > 0) {
+			try {
+				ByteBuffer block = ByteBuffer.wrap(encoded, 0, length);
+				long position = offsets[blockId];
+				while (block.hasRemaining()) {
+					int bytes = file.read(block, position);
+					if (bytes < 0) {
+						throw new EOFException(fileName + " is cut short at block " + blockId);
+					}
+					position += bytes;
+				}
+			} catch (IOException e) {
+				SysLib.cerr("threadOS: " + e + "\n");
+				return false;
+			}
+		}
+		return decode(encoded, length, buffer);
+	}
+
+	/**
+	 * Same as read(), since only the blocks written since the last sync are kept in memory.
+	 */
+	public boolean readThrough(int blockId, byte buffer[]) {
+		return read(blockId, buffer);
+	}
+
+	public void write(int blockId, byte buffer[]) {
+		unsynced.put(blockId, encode(buffer));
+	}
+
+	/**
+	 * Appends the blocks written since the last sync, updates their index entries and forces the image.
+	 * Rewrites the image if most of it is garbage.
+	 * The new index entries are kept aside until the image has them, so that a sync that fails leaves the index
+	 * as it was, and can be retried; the data it appended is garbage then.
+	 *
+	 * @throws IOException if the image can't be written
+	 */
+	public void sync() throws IOException {
+		if (unsynced.isEmpty()) {
+			return;
+		}
+
+		int count = unsynced.size();
+		int[] blockIds = new int[count];
+		long[] newOffsets = new long[count];
+		int[] newLengths = new int[count];
+		long newLiveBytes = liveBytes;
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		int n = 0;
+		for (Map.Entry<Integer, byte[]> entry : unsynced.entrySet()) {
+			int blockId = entry.getKey();
+			byte[] block = entry.getValue();
+			blockIds[n] = blockId;
+			newOffsets[n] = block.length > 0 ? dataEnd + data.size() : 0;
+			newLengths[n] = block.length;
+			newLiveBytes += block.length - lengths[blockId];
+			data.write(block, 0, block.length);
+			n++;
+		}
+		writeFully(ByteBuffer.wrap(data.toByteArray()), dataEnd);
+		// the data has to be there before an index entry refers to it
+		file.force(false);
+		// a retry appends after this data, since the index in the image may already refer to some of it
+		dataEnd += data.size();
+
+		// one write per run of consecutive index entries
+		for (int first = 0; first < count; ) {
+			int end = first + 1;
+			while (end < count && blockIds[end] == blockIds[end - 1] + 1) {
+				end++;
+			}
+			writeFully(indexEntries(newOffsets, newLengths, first, end),
+					HEADER_BYTES + (long) blockIds[first] * ENTRY_BYTES);
+			first = end;
+		}
+		file.force(false);
+
+		for (int i = 0; i < count; i++) {
+			offsets[blockIds[i]] = newOffsets[i];
+			lengths[blockIds[i]] = newLengths[i];
+		}
+		liveBytes = newLiveBytes;
+		unsynced.clear();
+
+		long garbage = dataEnd - dataStart() - liveBytes;
+		if (garbage > liveBytes && garbage > MIN_GARBAGE_BYTES) {
+			try {
+				rewrite();
+			} catch (IOException e) {
+				// the blocks are synced all the same; the garbage stays until the next try
+				SysLib.cerr("threadOS: " + fileName + " can't be rewritten: " + e + "\n");
+			}
+		}
+	}
+
+	/**
+	 * @return offset of the data in the image
+	 */
+	private long dataStart() {
+		return HEADER_BYTES + (long) blockCount * ENTRY_BYTES;
+	}
+
+	/**
+	 * Writes the header and an index of holes.
+	 */
+	private void create() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(blockCount).putInt(blockSize).flip();
+		file.truncate(0);
+		writeFully(header, 0);
+		dataEnd = dataStart();
+		liveBytes = 0;
+		if (dataEnd > HEADER_BYTES) {
+			// the index of holes is left sparse
+			writeFully(ByteBuffer.allocate(1), dataEnd - 1);
+		}
+		file.force(false);
+	}
+
+	/**
+	 * Reads the header and the index. An image made for another number of blocks is rewritten for this one.
+	 */
+	private void load() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		readFully(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			throw new IOException(fileName + " is not a compact disk image");
+		}
+		int imageBlocks = header.getInt();
+		if (header.getInt() != blockSize) {
+			throw new IOException(fileName + " has another block size");
+		}
+
+		ByteBuffer index = ByteBuffer.allocate(imageBlocks * ENTRY_BYTES);
+		readFully(index, HEADER_BYTES);
+		index.flip();
+		liveBytes = 0;
+		for (int i = 0; i < imageBlocks; i++) {
+			long offset = index.getLong();
+			int length = index.getInt();
+			if (i < blockCount) {
+				offsets[i] = offset;
+				lengths[i] = length;
+				liveBytes += length;
+			}
+		}
+		dataEnd = file.size();
+
+		if (imageBlocks != blockCount) {
+			rewrite();
+		}
+	}
+
+	/**
+	 * Copies the blocks of a DISK file into a new image, which then replaces the image.
+	 * Every block is written once, so no rewrite() can use the new image's name meanwhile.
+	 */
+	private void convert(String diskFileName) throws IOException {
+		String newFileName = fileName + ".new";
+		file = new RandomAccessFile(newFileName, "rw").getChannel();
+		create();
+		RandomAccessFile disk = new RandomAccessFile(diskFileName, "r");
+		try {
+			int blocks = (int) Math.min(blockCount, disk.length() / blockSize);
+			byte[] block = new byte[blockSize];
+			for (int i = 0; i < blocks; i++) {
+				disk.readFully(block);
+				write(i, block);
+				if (unsynced.size() >= IMPORT_BATCH) {
+					sync();
+				}
+			}
+			sync();
+		} finally {
+			disk.close();
+			file.close();
+		}
+
+		Files.move(Paths.get(newFileName), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		file = new RandomAccessFile(fileName, "rw").getChannel();
+		SysLib.cerr("threadOS: " + diskFileName + " converted to " + fileName + "\n");
+	}
+
+	/**
+	 * Writes the live data into a new image in block order, and replaces the image with it.
+	 * The index is switched to the new image only once it has replaced the old one.
+	 * Called when nothing is unsynced.
+	 */
+	private void rewrite() throws IOException {
+		String newFileName = fileName + ".new";
+		long[] newOffsets = new long[blockCount];
+		long position = dataStart();
+		FileChannel newFile = new RandomAccessFile(newFileName, "rw").getChannel();
+		try {
+			newFile.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(blockCount).putInt(blockSize).flip();
+			while (header.hasRemaining()) {
+				newFile.write(header, header.position());
+			}
+
+			ByteBuffer block = ByteBuffer.allocate(blockSize);
+			for (int i = 0; i < blockCount; i++) {
+				if (lengths[i] == 0) {
+					continue;
+				}
+				block.clear().limit(lengths[i]);
+				readFully(block, offsets[i]);
+				block.flip();
+				newOffsets[i] = position;
+				while (block.hasRemaining()) {
+					position += newFile.write(block, position);
+				}
+			}
+
+			ByteBuffer index = indexEntries(newOffsets, lengths, 0, blockCount);
+			long indexPosition = HEADER_BYTES;
+			while (index.hasRemaining()) {
+				indexPosition += newFile.write(index, indexPosition);
+			}
+			newFile.force(false);
+		} finally {
+			newFile.close();
+		}
+
+		Files.move(Paths.get(newFileName), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		FileChannel oldFile = file;
+		file = new RandomAccessFile(fileName, "rw").getChannel();
+		oldFile.close();
+		offsets = newOffsets;
+		dataEnd = position;
+	}
+
+	/**
+	 * @param offsets where the blocks' data is
+	 * @param lengths how long it is
+	 * @param first index in offsets and lengths of the first entry
+	 * @param end index after the last entry
+	 * @return the index entries of offsets and lengths from first through end - 1
+	 */
+	private static ByteBuffer indexEntries(long offsets[], int lengths[], int first, int end) {
+		ByteBuffer index = ByteBuffer.allocate((end - first) * ENTRY_BYTES);
+		for (int i = first; i < end; i++) {
+			index.putLong(offsets[i]).putInt(lengths[i]);
+		}
+		index.flip();
+		return index;
+	}
+
+	/**
+	 * @return the block's data: empty for a hole, the block itself, or the block deflated if that is shorter
+	 */
+	private byte[] encode(byte block[]) {
+		boolean zeros = true;
+		for (int i = 0; i < blockSize && zeros; i++) {
+			zeros = block[i] == 0;
+		}
+		if (zeros) {
+			return new byte[0];
+		}
+
+		if (compressed) {
+			deflater.reset();
+			deflater.setInput(block, 0, blockSize);
+			deflater.finish();
+			int length = deflater.deflate(encoded, 0, blockSize);
+			if (deflater.finished() && length < blockSize) {
+				return Arrays.copyOf(encoded, length);
+			}
+		}
+		return Arrays.copyOf(block, blockSize);
+	}
+
+	/**
+	 * Copies the block that data of the given length stands for into buffer.
+	 *
+	 * @return false if deflated data can't be inflated
+	 */
+	private boolean decode(byte data[], int length, byte buffer[]) {
+		if (length == 0) {
+			Arrays.fill(buffer, 0, blockSize, (byte) 0);
+		} else if (length == blockSize) {
+			System.arraycopy(data, 0, buffer, 0, blockSize);
+		} else {
+			inflater.reset();
+			inflater.setInput(data, 0, length);
+			try {
+				if (inflater.inflate(buffer, 0, blockSize) != blockSize) {
+					throw new DataFormatException("block too short");
+				}
+			} catch (DataFormatException e) {
+				SysLib.cerr("threadOS: " + fileName + ": " + e.getMessage() + "\n");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += file.write(buffer, position);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int bytes = file.read(buffer, position);
+			if (bytes < 0) {
+				throw new EOFException(fileName + " is cut short");
+			}
+			position += bytes;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ * DeviceModel interface decides how long the Disk takes to serve a request, so that the cache and the disk schedulers
+ * can be tuned against the kind of device they will run on. Selected with -DthreadOS.disk.model=name.
+ *
+ * Implementations:
+ *   classic - the original ThreadOS disk: 20 ms per request plus 1 ms per track crossed (default)
+ *   hdd     - a hard disk with a seek curve, rotational latency and a track buffer
+ *   ssd     - a flash drive with a flat latency and several requests served at once
+ *   ram     - no latency at all
+ *
+ * A model that serves one request at a time is only called by one thread, so it may keep the state of the device.
+ *
+ *
+ */
+
+
+public interface DeviceModel {
+
+	/**
+	 * Returns the time to serve a request, and updates the state of the device as if it had been served.
+	 *
+	 * @param command DiskRequest.READ, WRITE or SYNC
+	 * @param blockId The number that specifies the block, or the head's for SYNC
+	 * @param headBlockId The number that specifies the block of the previous request
+	 * @return nanoseconds the request takes
+	 */
+	long serviceNanos(int command, int blockId, int headBlockId);
+
+	/**
+	 * @return the number of requests the device serves at the same time
+	 */
+	int parallelism();
+}
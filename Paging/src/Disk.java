@@ -0,0 +1,369 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.locks.LockSupport;
+
+public class Disk extends Thread implements BlockDevice {
+    public static final int blockSize = 512;
+    private final int trackSize = 10;  // blocks per track in the statistics
+    private int diskSize;
+    private DeviceModel model;     // how long each request takes
+
+    private BlockStore store;      // contents of the disk, kept in the DISK file
+    private WriteAheadLog log;     // journal of the writes, or null
+    private ChecksummedBlockStore checksums;  // store when checksummed, or null
+    private Scrubber scrubber;     // verifies the blocks in idle time, or null
+
+    // indices of the statistics copied by getStats( )
+    public static final int STAT_REQUESTS = 0;      // requests served
+    public static final int STAT_TRACKS = 1;        // tracks crossed by the head
+    public static final int STAT_WAIT_MICROS = 2;   // total time requests spent queued
+    public static final int STAT_MAX_WAIT_MICROS = 3;
+    public static final int STAT_LATENCY_MICROS = 4;  // total time from request to wakeup
+    public static final int STAT_MAX_LATENCY_MICROS = 5;
+    public static final int STAT_JOURNAL_COMMITS = 6; // forces of the journal
+    public static final int STAT_CORRUPT_BLOCKS = 7;  // wrong checksums found
+    public static final int STAT_SCRUBBED_BLOCKS = 8; // blocks the scrubber checked
+    public static final int STATS = 9;
+
+    private int queueDepth;                     // max requests queued at once
+    private ArrayList<DiskRequest> pending;     // queued requests, in arrival order
+    private ArrayList<DiskRequest> serving;     // requests handed out, not finished
+    private DiskScheduler scheduler;            // picks the next request to serve
+    private long[] stats;
+
+    private int currentBlockId;
+
+    public Disk( int totalBlocks ) {
+	this( totalBlocks, "heap", 1, new DiskScheduler( "fifo", 0 ), "DISK",
+	      new ClassicModel( ), false, false, 0 );
+    }
+
+    // returns the DeviceModel named classic, hdd, ssd or ram, for a disk of
+    // totalBlocks blocks; -DthreadOS.disk.blocksPerTrack=n and
+    // -DthreadOS.disk.rpm=n shape hdd, and -DthreadOS.disk.channels=n ssd
+    public static DeviceModel newDeviceModel( String name, int totalBlocks ) {
+	if ( name.equals( "hdd" ) )
+	    return new HddModel( totalBlocks,
+				 Integer.getInteger( "threadOS.disk.blocksPerTrack", 32 ),
+				 Integer.getInteger( "threadOS.disk.rpm", 7200 ) );
+	else if ( name.equals( "ssd" ) )
+	    return new SsdModel( Integer.getInteger( "threadOS.disk.channels", 4 ) );
+	else if ( name.equals( "ram" ) )
+	    return new RamModel( );
+	else
+	    return new ClassicModel( );
+    }
+
+    // returns the BlockStore named heap, mapped, compact or deflate for a
+    // disk of totalBlocks blocks kept in fileName (see BlockStore); a store
+    // that can't be opened falls back to heap
+    public static BlockStore newBlockStore( String name, int totalBlocks,
+					     String fileName ) {
+	try {
+	    if ( name.equals( "mapped" ) )
+		return new MappedBlockStore( totalBlocks, blockSize, fileName );
+	    else if ( name.equals( "compact" ) )
+		return new CompactBlockStore( totalBlocks, blockSize, fileName,
+					      false );
+	    else if ( name.equals( "deflate" ) )
+		return new CompactBlockStore( totalBlocks, blockSize, fileName,
+					      true );
+	} catch ( IOException e ) {
+	    SysLib.cerr( "threadOS: DISK can't be opened as " + name + ": " +
+			 e + "\n" );
+	}
+	return new HeapBlockStore( totalBlocks, blockSize, fileName );
+    }
+
+    // storeName chooses how the blocks are kept (see newBlockStore).
+    // queueDepth requests can be queued at once, and scheduler picks
+    // the order in which they are served. fileName is the DISK file, and
+    // model times the requests. journaled makes each write durable before
+    // it completes, through a WriteAheadLog kept in fileName.log. That log
+    // is replayed at boot, journaled or not, and removed when not.
+    // checksummed checks every block read against a CRC32C kept in
+    // fileName.crc, and has a Scrubber verify up to scrubRate blocks a
+    // second in idle time (none if scrubRate is 0).
+    public Disk( int totalBlocks, String storeName, int queueDepth,
+		 DiskScheduler scheduler, String fileName, DeviceModel model,
+		 boolean journaled, boolean checksummed, int scrubRate ) {
+	diskSize = ( totalBlocks > 0 ) ? totalBlocks : 1;
+	this.model = model;
+	this.queueDepth = ( queueDepth > 0 ) ? queueDepth : 1;
+	pending = new ArrayList<DiskRequest>( this.queueDepth );
+	serving = new ArrayList<DiskRequest>( );
+	this.scheduler = scheduler;
+	stats = new long[STATS];
+	currentBlockId = 0;
+	store = newBlockStore( storeName, diskSize, fileName );
+
+	checksums = null;
+	scrubber = null;
+	if ( checksummed ) {
+	    try {
+		store = checksums = new ChecksummedBlockStore( store, diskSize,
+							       blockSize,
+							       fileName + ".crc" );
+		if ( scrubRate > 0 )
+		    scrubber = new Scrubber( this, checksums, diskSize, scrubRate );
+	    } catch ( IOException e ) {
+		SysLib.cerr( "threadOS: no checksums: " + e + "\n" );
+	    }
+	}
+	if ( checksums == null )
+	    // the blocks are about to change without their checksums
+	    new File( fileName + ".crc" ).delete( );
+
+	// a log left by a journaled run is replayed even when this one isn't
+	// journaled. Otherwise this run's writes would reach the DISK file,
+	// and the next journaled boot would replay the older records over them
+	log = null;
+	File logFile = new File( fileName + ".log" );
+	if ( journaled || logFile.exists( ) ) {
+	    try {
+		log = new WriteAheadLog( this, store, diskSize, blockSize,
+					 fileName + ".log" );
+		if ( !journaled ) {
+		    log.close( );
+		    log = null;
+		    logFile.delete( );
+		}
+	    } catch ( IOException e ) {
+		SysLib.cerr( "threadOS: " + logFile + " can't be replayed: " +
+			     e + "\n" );
+		System.exit( 1 );
+	    }
+	}
+    }
+
+    // queues a read of blockId into buffer, returning the request or null
+    // if the queue is full
+    public DiskRequest read( int blockId, byte buffer[] ) {
+
+	if ( blockId < 0 || blockId >= diskSize ) {
+	    SysLib.cerr( "threadOS: a wrong blockId for read\n" );
+	    return null;
+	}
+	return submit( new DiskRequest( DiskRequest.READ, blockId, buffer ) );
+    }
+
+    // queues a write of buffer to blockId, returning the request or null
+    // if the queue is full
+    public DiskRequest write( int blockId, byte buffer[] ) {
+
+	if ( blockId < 0 || blockId >= diskSize ) {
+	    SysLib.cerr( "threadOS: a wrong blockId for write\n" );
+	    return null;
+	}
+	return submit( new DiskRequest( DiskRequest.WRITE, blockId, buffer ) );
+    }
+
+    // queues a sync, returning the request or null if the queue is full
+    public DiskRequest sync( ) {
+	return submit( new DiskRequest( DiskRequest.SYNC, 0, null ) );
+    }
+
+    // queues request even if the queue is full, for a request made while
+    // serving another one, which can't wait for room
+    synchronized void submitNow( DiskRequest request ) {
+	pending.add( request );
+	notifyAll( );
+    }
+
+    // whether a request can be queued now
+    synchronized boolean hasRoom( ) {
+	return pending.size( ) < queueDepth;
+    }
+
+    // whether no request is queued or being served
+    synchronized boolean isIdle( ) {
+	return pending.isEmpty( ) && serving.isEmpty( );
+    }
+
+    // blockId at which the head is, or was a moment ago
+    int headPosition( ) {
+	return currentBlockId;
+    }
+
+    synchronized DiskRequest submit( DiskRequest request ) {
+	if ( pending.size( ) >= queueDepth )
+	    return null;
+	pending.add( request );
+	notifyAll( );
+	return request;
+    }
+
+    // copies as many of the statistics as fit into stats
+    public synchronized void getStats( long stats[] ) {
+	if ( log != null )
+	    this.stats[STAT_JOURNAL_COMMITS] = log.getCommits( );
+	if ( checksums != null ) {
+	    synchronized ( store ) {
+		this.stats[STAT_CORRUPT_BLOCKS] = checksums.getCorruptBlocks( );
+		this.stats[STAT_SCRUBBED_BLOCKS] = checksums.getVerifiedBlocks( );
+	    }
+	}
+	System.arraycopy( this.stats, 0, stats, 0,
+			  Math.min( STATS, stats.length ) );
+    }
+
+    // counts the time from when request was made until its thread resumed
+    public synchronized void recordLatency( DiskRequest request ) {
+	long latencyMicros = ( System.nanoTime( ) - request.arrivalNanos ) / 1000;
+	stats[STAT_LATENCY_MICROS] += latencyMicros;
+	stats[STAT_MAX_LATENCY_MICROS] =
+	    Math.max( stats[STAT_MAX_LATENCY_MICROS], latencyMicros );
+    }
+
+    // the queued requests that can be served now, in arrival order. On a
+    // device with several channels, a request served at the same time as
+    // an earlier one for its block could finish first, so a request is
+    // held back while an earlier one for the same block is queued or being
+    // served. A sync is a barrier: it waits until every earlier request has
+    // finished, and the requests after it wait for it.
+    private ArrayList<DiskRequest> readyRequests( ) {
+	ArrayList<DiskRequest> ready = new ArrayList<DiskRequest>( );
+	HashSet<Integer> taken = new HashSet<Integer>( );
+	for ( DiskRequest request : serving ) {
+	    if ( request.command == DiskRequest.SYNC )
+		return ready;
+	    taken.add( request.blockId );
+	}
+	for ( int i = 0; i < pending.size( ); i++ ) {
+	    DiskRequest request = pending.get( i );
+	    if ( request.command == DiskRequest.SYNC ) {
+		if ( i == 0 && serving.isEmpty( ) )
+		    ready.add( request );
+		break;
+	    }
+	    if ( taken.add( request.blockId ) )
+		ready.add( request );
+	}
+	return ready;
+    }
+
+    // waits for a request that can be served now and removes the one the
+    // scheduler picks among those
+    private synchronized DiskRequest waitCommand( ) {
+	ArrayList<DiskRequest> ready;
+	while ( ( ready = readyRequests( ) ).isEmpty( ) ) {
+	    try {
+		wait( );
+	    } catch ( InterruptedException e ) {
+		SysLib.cerr( e.toString( ) + "\n" );
+	    }
+	}
+	DiskRequest request = ready.get( scheduler.next( ready, currentBlockId ) );
+	pending.remove( request );
+	serving.add( request );
+
+	long waitMicros = ( System.nanoTime( ) - request.arrivalNanos ) / 1000;
+	stats[STAT_WAIT_MICROS] += waitMicros;
+	stats[STAT_MAX_WAIT_MICROS] =
+	    Math.max( stats[STAT_MAX_WAIT_MICROS], waitMicros );
+	return request;
+    }
+
+    // moves the head to request's block and waits as long as the model
+    // says serving it takes
+    private void seek( DiskRequest request ) {
+	long serviceNanos;
+	synchronized ( this ) {
+	    int targetBlockId = ( request.command == DiskRequest.SYNC ) ?
+		currentBlockId : request.blockId;
+	    stats[STAT_TRACKS] +=
+		Math.abs( targetBlockId/trackSize - currentBlockId/trackSize );
+	    serviceNanos = model.serviceNanos( request.command, targetBlockId,
+					       currentBlockId );
+	    currentBlockId = targetBlockId;
+	}
+
+	// Thread.sleep( ) can't wait for less than a millisecond
+	long deadline = System.nanoTime( ) + serviceNanos;
+	for ( long left = serviceNanos; left > 0;
+	      left = deadline - System.nanoTime( ) )
+	    LockSupport.parkNanos( left );
+    }
+
+    // completes request; the journal calls this once a write is durable
+    void finishCommand( DiskRequest request ) {
+	synchronized ( this ) {
+	    serving.remove( request );
+	    notifyAll( );  // the requests held back for it may be served now
+	    stats[STAT_REQUESTS]++;
+	}
+	// without the lock, since completing a DiskArray's request may queue
+	// another request on another disk
+	SysLib.disk( request ); // a disk interrupt for request
+    }
+
+    public void run ( ) {
+	if ( log != null )
+	    log.start( );
+	if ( scrubber != null )
+	    scrubber.start( );
+	// a device that serves several requests at once gets a thread for each
+	for ( int i = 1; i < model.parallelism( ); i++ ) {
+	    Thread channel = new Thread( new Runnable( ) {
+		    public void run( ) {
+			serve( );
+		    }
+		} );
+	    channel.setDaemon( true );
+	    channel.start( );
+	}
+	serve( );
+    }
+
+    private void serve( ) {
+	
+	while ( true ) {
+	    DiskRequest request = waitCommand( );
+	    seek( request );
+	    // System.out.println( "Disk: command = " + request.command );
+	    if ( log != null && request.command != DiskRequest.READ ) {
+		journal( request );
+		continue;
+	    }
+	    synchronized ( store ) {
+		switch( request.command ) {
+		case DiskRequest.READ:
+		    if ( !store.read( request.blockId, request.buffer ) )
+			request.failed = true;
+		    break;
+		case DiskRequest.WRITE:
+		    store.write( request.blockId, request.buffer );
+		    break;
+		case DiskRequest.SYNC:
+		    try {
+			store.sync( );
+		    } catch ( IOException e ) {
+			SysLib.cerr( e.toString( ) );
+		    }
+		    // SysLib.cerr( "threadOS: DISK synchronized\n" );
+		    break;
+		}
+	    }
+	    finishCommand( request );
+	}
+    }
+
+    // a write is applied and left to the journal to complete, and a sync
+    // is a checkpoint of the journal
+    private void journal( DiskRequest request ) {
+	if ( request.command == DiskRequest.WRITE ) {
+	    synchronized ( store ) {
+		store.write( request.blockId, request.buffer );
+		log.append( request );
+	    }
+	    return;
+	}
+	try {
+	    log.checkpoint( );
+	} catch ( IOException e ) {
+	    SysLib.cerr( e.toString( ) );
+	}
+	finishCommand( request );
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ * DiskArray class spreads the blocks over several Disks, each with its own thread, request queue and DISK file
+ * (DISK0, DISK1, ...), so that requests to different disks are served at the same time.
+ *
+ *   RAID-0 - the blocks are striped: stripe unit u (stripeSize consecutive blocks) is on disk u % n.
+ *   RAID-1 - every disk holds every block. A write goes to all the disks, and a read goes to the disk
+ *            whose head is nearest to the block. If that disk can't read the block, e.g. because it is corrupt
+ *            there, the next disk is read instead, and the good copy is written back to the disk that couldn't.
+ *
+ * A request that involves several disks is split into one part per disk, and it completes when its last part does.
+ * A request is queued only if every disk it involves has room for it, so a request is never half queued.
+ * The statistics count the requests made to the array, and sum the other counts
+ * (tracks, queueing times, journal commits, checksums) of all the disks.
+ *
+ *
+ */
+
+
+public class DiskArray implements BlockDevice {
+	private Disk[] disks;				// the member disks
+	private boolean mirrored;			// RAID-1 rather than RAID-0
+	private int stripeSize;				// blocks per stripe unit for RAID-0
+	private int blockCount;				// number of blocks in the array
+	private int[] writes;				// writes made to each block under RAID-1, see MirroredRead
+	private long[] stats;				// requests and latencies, see Disk.STAT_REQUESTS
+
+
+	/**
+	 * @param blockCount The number of blocks in the array
+	 * @param diskCount The number of disks
+	 * @param mirrored whether to mirror (RAID-1) rather than stripe (RAID-0)
+	 * @param stripeSize The number of consecutive blocks kept on one disk for RAID-0
+	 * @param storeName how each disk keeps its blocks (see Disk.newBlockStore)
+	 * @param queueDepth The number of requests each disk can queue at once
+	 * @param schedulerName The disk scheduling policy of each disk (see DiskScheduler)
+	 * @param deadlineMillis how long a request may wait under the deadline policy
+	 * @param modelName The timing model of each disk (see DeviceModel)
+	 * @param journaled whether each disk journals its writes (see WriteAheadLog)
+	 * @param checksummed whether each disk checks its blocks (see ChecksummedBlockStore)
+	 * @param scrubRate The most blocks a second each disk's Scrubber verifies, 0 for none
+	 */
+	public DiskArray(int blockCount, int diskCount, boolean mirrored, int stripeSize, String storeName,
+			int queueDepth, String schedulerName, int deadlineMillis, String modelName, boolean journaled,
+			boolean checksummed, int scrubRate) {
+		this.blockCount = blockCount;
+		this.mirrored = mirrored;
+		this.stripeSize = Math.max(1, stripeSize);
+		stats = new long[Disk.STATS];
+
+		int blocksPerDisk = blockCount;
+		if (mirrored) {
+			writes = new int[blockCount];
+		} else {
+			int units = (blockCount + this.stripeSize - 1) / this.stripeSize;
+			blocksPerDisk = (units + diskCount - 1) / diskCount * this.stripeSize;
+		}
+		disks = new Disk[diskCount];
+		for (int i = 0; i < diskCount; i++) {
+			disks[i] = new Disk(blocksPerDisk, storeName, queueDepth,
+					new DiskScheduler(schedulerName, deadlineMillis), "DISK" + i,
+					Disk.newDeviceModel(modelName, blocksPerDisk), journaled, checksummed, scrubRate);
+		}
+	}
+
+	public DiskRequest read(int blockId, byte buffer[]) {
+		if (!isValid(blockId)) {
+			SysLib.cerr("threadOS: a wrong blockId for read\n");
+			return null;
+		}
+		if (!mirrored) {
+			return submit(new DiskRequest(DiskRequest.READ, blockId, buffer), stripeDisk(blockId),
+					stripeBlock(blockId));
+		}
+		synchronized (this) {
+			// the nearest head among the disks with room in their queues
+			int best = -1;
+			for (int i = 0; i < disks.length; i++) {
+				if (disks[i].hasRoom() && (best == -1 || Math.abs(disks[i].headPosition() - blockId)
+						< Math.abs(disks[best].headPosition() - blockId))) {
+					best = i;
+				}
+			}
+			if (best == -1) {
+				return null;
+			}
+			return submit(new DiskRequest(DiskRequest.READ, blockId, buffer), best, blockId);
+		}
+	}
+
+	public DiskRequest write(int blockId, byte buffer[]) {
+		if (!isValid(blockId)) {
+			SysLib.cerr("threadOS: a wrong blockId for write\n");
+			return null;
+		}
+		if (!mirrored) {
+			return submit(new DiskRequest(DiskRequest.WRITE, blockId, buffer), stripeDisk(blockId),
+					stripeBlock(blockId));
+		}
+		synchronized (this) {
+			DiskRequest request = submitToAll(new DiskRequest(DiskRequest.WRITE, blockId, buffer));
+			if (request != null) {
+				writes[blockId]++;
+			}
+			return request;
+		}
+	}
+
+	public DiskRequest sync() {
+		return submitToAll(new DiskRequest(DiskRequest.SYNC, 0, null));
+	}
+
+	public synchronized void getStats(long stats[]) {
+		long[] total = this.stats.clone();
+		long[] diskStats = new long[Disk.STATS];
+		for (int i = 0; i < disks.length; i++) {
+			disks[i].getStats(diskStats);
+			total[Disk.STAT_TRACKS] += diskStats[Disk.STAT_TRACKS];
+			total[Disk.STAT_WAIT_MICROS] += diskStats[Disk.STAT_WAIT_MICROS];
+			total[Disk.STAT_JOURNAL_COMMITS] += diskStats[Disk.STAT_JOURNAL_COMMITS];
+			total[Disk.STAT_CORRUPT_BLOCKS] += diskStats[Disk.STAT_CORRUPT_BLOCKS];
+			total[Disk.STAT_SCRUBBED_BLOCKS] += diskStats[Disk.STAT_SCRUBBED_BLOCKS];
+			total[Disk.STAT_MAX_WAIT_MICROS] = Math.max(total[Disk.STAT_MAX_WAIT_MICROS],
+					diskStats[Disk.STAT_MAX_WAIT_MICROS]);
+		}
+		System.arraycopy(total, 0, stats, 0, Math.min(Disk.STATS, stats.length));
+	}
+
+	public synchronized void recordLatency(DiskRequest request) {
+		long latencyMicros = (System.nanoTime() - request.arrivalNanos) / 1000;
+		stats[Disk.STAT_LATENCY_MICROS] += latencyMicros;
+		stats[Disk.STAT_MAX_LATENCY_MICROS] = Math.max(stats[Disk.STAT_MAX_LATENCY_MICROS], latencyMicros);
+	}
+
+	public void start() {
+		for (int i = 0; i < disks.length; i++) {
+			disks[i].start();
+		}
+	}
+
+	private boolean isValid(int blockId) {
+		return blockId >= 0 && blockId < blockCount;
+	}
+
+	/**
+	 * @param blockId The number that specifies the block in the array
+	 * @return index of the disk that holds the block under RAID-0
+	 */
+	private int stripeDisk(int blockId) {
+		return blockId / stripeSize % disks.length;
+	}
+
+	/**
+	 * @param blockId The number that specifies the block in the array
+	 * @return blockId of the block on its disk under RAID-0
+	 */
+	private int stripeBlock(int blockId) {
+		return blockId / stripeSize / disks.length * stripeSize + blockId % stripeSize;
+	}
+
+	/**
+	 * Queues request as a single part on one disk.
+	 *
+	 * @param request The request made to the array
+	 * @param disk index of the disk
+	 * @param diskBlockId The number that specifies the block on that disk
+	 * @return request, or null if the disk's queue is full
+	 */
+	private synchronized DiskRequest submit(DiskRequest request, int disk, int diskBlockId) {
+		if (!disks[disk].hasRoom()) {
+			return null;
+		}
+		request.addParts(1);
+		if (mirrored) {
+			disks[disk].submit(new MirroredRead(request, disk, new boolean[disks.length]));
+		} else {
+			disks[disk].submit(new DiskRequest(request.command, diskBlockId, request.buffer, request));
+		}
+		stats[Disk.STAT_REQUESTS]++;
+		return request;
+	}
+
+	/**
+	 * Queues request as one part on every disk.
+	 *
+	 * @param request The request made to the array
+	 * @return request, or null if any disk's queue is full
+	 */
+	private synchronized DiskRequest submitToAll(DiskRequest request) {
+		for (int i = 0; i < disks.length; i++) {
+			if (!disks[i].hasRoom()) {
+				return null;
+			}
+		}
+		request.addParts(disks.length);
+		for (int i = 0; i < disks.length; i++) {
+			disks[i].submit(new DiskRequest(request.command, request.blockId, request.buffer, request));
+		}
+		stats[Disk.STAT_REQUESTS]++;
+		return request;
+	}
+
+	/**
+	 * A read of a mirrored block from one of the disks. If the disk can't read the block, this part is replaced by
+	 * a read from the next disk that hasn't failed, and the request fails only if none can read it.
+	 * Once a disk has read the block, the good copy is written back to the disks that couldn't, unless the block
+	 * has been written since this part was queued; that write goes to every disk, and may be served before the
+	 * copy otherwise. The repairs are queued with the array's lock held, so that the writes made after them
+	 * are served after them, as a disk serves the requests for a block in order.
+	 */
+	private class MirroredRead extends DiskRequest {
+		private DiskRequest request;		// the request made to the array
+		private int disk;					// index of the disk this part is queued on
+		private boolean[] failedDisks;		// the disks that couldn't read the block so far
+		private int writesSeen;				// writes[blockId] when this part was queued
+
+		/**
+		 * Must be called with the array's lock held.
+		 *
+		 * @param request The request made to the array
+		 * @param disk index of the disk the part is queued on
+		 * @param failedDisks the disks that couldn't read the block so far
+		 */
+		MirroredRead(DiskRequest request, int disk, boolean failedDisks[]) {
+			super(DiskRequest.READ, request.blockId, request.buffer, request);
+			this.request = request;
+			this.disk = disk;
+			this.failedDisks = failedDisks;
+			writesSeen = writes[blockId];
+		}
+
+		void complete() {
+			synchronized (DiskArray.this) {
+				if (failed) {
+					failedDisks[disk] = true;
+					for (int i = 1; i < disks.length; i++) {
+						int next = (disk + i) % disks.length;
+						if (!failedDisks[next]) {
+							disks[next].submitNow(new MirroredRead(request, next, failedDisks));
+							return;
+						}
+					}
+				} else if (writes[blockId] == writesSeen) {
+					repair();
+				}
+			}
+			super.complete();
+		}
+
+		/**
+		 * Writes the block just read back to the disks that couldn't read it.
+		 */
+		private void repair() {
+			byte[] copy = null;
+			for (int i = 0; i < disks.length; i++) {
+				if (!failedDisks[i]) {
+					continue;
+				}
+				if (copy == null) {
+					// the caller may reuse buffer once the request completes
+					copy = buffer.clone();
+				}
+				disks[i].submitNow(new DiskRequest(DiskRequest.WRITE, blockId, copy));
+				SysLib.cerr("threadOS: block " + blockId + " of DISK" + i + " rewritten from DISK" + disk + "\n");
+			}
+		}
+	}
+}
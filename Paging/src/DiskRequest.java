@@ -0,0 +1,162 @@
+/**
+ *
+ * DiskRequest class is a read, write or sync waiting in the Disk's request queue or being served.
+ * The Disk returns one from read(), write() and sync(). The thread that made the request waits on it with await(),
+ * and the disk interrupt for it calls complete(), which wakes up that thread alone.
+ * awaitAny() waits for the first of several requests, as the asynchronous disk syscalls need.
+ * A request is waited for by one thread at a time.
+ * A request to a DiskArray is split into parts, one per Disk involved, and completes when its last part does.
+ * A request fails if any of its parts does, as a read of a corrupt block does.
+ *
+ *
+ */
+
+
+public class DiskRequest {
+	public static final int READ = 1;
+	public static final int WRITE = 2;
+	public static final int SYNC = 3;
+
+	final int command;					// READ, WRITE or SYNC
+	final int blockId;					// block to read or write, unused for SYNC
+	final byte[] buffer;				// data to write or array to read into, null for SYNC
+	final long arrivalNanos;			// System.nanoTime() when the request was queued
+	volatile boolean done;				// whether the Disk has served the request
+	volatile boolean failed;			// whether the Disk found the block corrupt
+	private volatile Object listener;	// also notified on completion, set by awaitAny()
+	private DiskRequest parent;			// the request this is a part of, or null
+	private int unfinishedParts;		// parts of this request not served yet
+
+
+	/**
+	 * @param command READ, WRITE or SYNC
+	 * @param blockId The number that specifies the block
+	 * @param buffer data to write or array to read into
+	 */
+	DiskRequest(int command, int blockId, byte buffer[]) {
+		this(command, blockId, buffer, null);
+	}
+
+	/**
+	 * @param command READ, WRITE or SYNC
+	 * @param blockId The number that specifies the block
+	 * @param buffer data to write or array to read into
+	 * @param parent The request this is a part of, or null
+	 */
+	DiskRequest(int command, int blockId, byte buffer[], DiskRequest parent) {
+		this.command = command;
+		this.blockId = blockId;
+		this.buffer = buffer;
+		this.parent = parent;
+		arrivalNanos = System.nanoTime();
+		done = false;
+		failed = false;
+		unfinishedParts = 0;
+	}
+
+	/**
+	 * Adds parts that have to be served before this request is complete.
+	 *
+	 * @param parts The number of parts
+	 */
+	synchronized void addParts(int parts) {
+		unfinishedParts += parts;
+	}
+
+	/**
+	 * Counts a part as served, and completes this request if it was the last one.
+	 */
+	private void partCompleted() {
+		boolean last;
+		synchronized (this) {
+			last = --unfinishedParts == 0;
+		}
+		if (last) {
+			complete();
+		}
+	}
+
+	/**
+	 * @return whether the Disk has served the request
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return whether the request failed; valid once it is done
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Marks the request served and wakes up the thread waiting for it.
+	 */
+	void complete() {
+		synchronized (this) {
+			done = true;
+			notifyAll();
+		}
+
+		// awaitAny() sets listener before it tests done, and done is set before listener is read here,
+		// so either awaitAny() sees done or this sees its listener.
+		Object monitor = listener;
+		if (monitor != null) {
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+		}
+
+		if (parent != null) {
+			if (failed) {
+				parent.failed = true;
+			}
+			parent.partCompleted();
+		}
+	}
+
+	/**
+	 * Waits until the Disk has served the request.
+	 */
+	public synchronized void await() {
+		while (!done) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Waits until the Disk has served at least one of the requests.
+	 *
+	 * @param requests the requests to wait for, not empty
+	 * @return index in requests of a served request
+	 */
+	public static int awaitAny(DiskRequest requests[]) {
+		Object monitor = new Object();
+		synchronized (monitor) {
+			for (int i = 0; i < requests.length; i++) {
+				requests[i].listener = monitor;
+			}
+			try {
+				while (true) {
+					for (int i = 0; i < requests.length; i++) {
+						if (requests[i].done) {
+							return i;
+						}
+					}
+					try {
+						monitor.wait();
+					} catch (InterruptedException e) {
+					}
+				}
+			} finally {
+				for (int i = 0; i < requests.length; i++) {
+					requests[i].listener = null;
+				}
+			}
+		}
+	}
+}
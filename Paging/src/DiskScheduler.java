@@ -0,0 +1,126 @@
+/**
+ *
+ * DiskScheduler class decides which of the Disk's queued requests is served next.
+ * The Disk charges for every track the head crosses, so serving requests in arrival order
+ * makes the head swing back and forth across the disk under concurrent load.
+ *
+ * Policies:
+ *   fifo     - arrival order (default)
+ *   sstf     - shortest seek time first, the request nearest to the head
+ *   scan     - elevator; keeps moving the head in one direction while there are requests ahead of it,
+ *              then turns around (it turns at the last request rather than at the edge of the disk)
+ *   clook    - circular LOOK; serves requests only while moving up, then jumps back to the lowest one
+ *   deadline - clook, except that a request that has waited longer than the deadline is served first
+ *
+ * A sync has no position on the disk, so it is treated as if it were at the head.
+ * Called with the Disk's lock held, with only the requests the Disk can serve now (see Disk.readyRequests);
+ * a request is never ordered ahead of an earlier one for the same block, nor of an earlier sync.
+ *
+ *
+ */
+
+
+import java.util.List;
+
+public class DiskScheduler {
+	private static final int FIFO = 0;
+	private static final int SSTF = 1;
+	private static final int SCAN = 2;
+	private static final int CLOOK = 3;
+	private static final int DEADLINE = 4;
+
+	private int policy;				// one of the constants above
+	private boolean movingUp;			// direction of the head for scan
+	private long deadlineNanos;		// how long a request may wait under deadline
+
+
+	/**
+	 * @param name fifo, sstf, scan, clook or deadline; anything else is fifo
+	 * @param deadlineMillis how long a request may wait under the deadline policy
+	 */
+	public DiskScheduler(String name, int deadlineMillis) {
+		if (name.equals("sstf")) {
+			policy = SSTF;
+		} else if (name.equals("scan")) {
+			policy = SCAN;
+		} else if (name.equals("clook")) {
+			policy = CLOOK;
+		} else if (name.equals("deadline")) {
+			policy = DEADLINE;
+		} else {
+			policy = FIFO;
+		}
+		movingUp = true;
+		deadlineNanos = deadlineMillis * 1000000L;
+	}
+
+	/**
+	 * Chooses the next request to serve.
+	 *
+	 * @param pending the queued requests in arrival order, not empty
+	 * @param head blockId at which the head is
+	 * @return index in pending of the request to serve next
+	 */
+	public int next(List<DiskRequest> pending, int head) {
+		switch (policy) {
+		case SSTF:
+			return nearest(pending, head, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		case SCAN:
+			int index = movingUp ? nearest(pending, head, head, Integer.MAX_VALUE)
+					: nearest(pending, head, Integer.MIN_VALUE, head);
+			if (index == -1) {
+				movingUp = !movingUp;
+				index = nearest(pending, head, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			}
+			return index;
+		case DEADLINE:
+			// pending is in arrival order, so the first request is the one that has waited longest
+			if (System.nanoTime() - pending.get(0).arrivalNanos > deadlineNanos) {
+				return 0;
+			}
+			return circularLook(pending, head);
+		case CLOOK:
+			return circularLook(pending, head);
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @param pending the queued requests
+	 * @param head blockId at which the head is
+	 * @return index of the nearest request at or above the head, or if there is none, of the lowest request
+	 */
+	private int circularLook(List<DiskRequest> pending, int head) {
+		int index = nearest(pending, head, head, Integer.MAX_VALUE);
+		if (index == -1) {
+			index = nearest(pending, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the request nearest to from among those located in [low, high].
+	 * Ties go to the request that arrived first.
+	 *
+	 * @param pending the queued requests
+	 * @param from blockId from which distances are measured
+	 * @param low lowest blockId to consider
+	 * @param high highest blockId to consider
+	 * @return index of the request in pending, or -1 if there is none in [low, high]
+	 */
+	private static int nearest(List<DiskRequest> pending, int from, int low, int high) {
+		int best = -1;
+		long bestDistance = Long.MAX_VALUE;
+		for (int i = 0; i < pending.size(); i++) {
+			DiskRequest request = pending.get(i);
+			int position = request.command == DiskRequest.SYNC ? from : request.blockId;
+			long distance = Math.abs((long) position - from);
+			if (position >= low && position <= high && distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+}
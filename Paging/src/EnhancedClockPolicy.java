@@ -0,0 +1,93 @@
+/**
+ *
+ * EnhancedClockPolicy class implements the enhanced second-chance algorithm.
+ * Each page falls into one of four classes by its (referenceBit, dirtyBit) pair:
+ *   (0, 0) neither recently used nor modified - best victim
+ *   (0, 1) not recently used but modified     - needs a write-back
+ *   (1, 0) recently used but clean            - probably used again soon
+ *   (1, 1) recently used and modified         - worst victim
+ * The clock first looks for a (0, 0) page without touching anything. If there is none,
+ * it looks for a (0, 1) page while clearing the referenceBits it passes, and repeats,
+ * so that a clean page is always evicted before a dirty page of the same class.
+ *
+ *
+ */
+
+
+public class EnhancedClockPolicy implements ReplacementPolicy {
+	private Pages pages;				// state of the stripe's pages
+	private boolean[] referenceBit;		// whether each page had been recently used
+	private int victimIndex;			// keeps track of index for victim page
+
+
+	/**
+	 * The constructor sets the victimIndex to the last page, so that the clock starts at page 0.
+	 *
+	 * @param pages state of the stripe's pages
+	 * @param pageTableLength The total number of pages
+	 */
+	public EnhancedClockPolicy(Pages pages, int pageTableLength) {
+		this.pages = pages;
+		referenceBit = new boolean[pageTableLength];
+		victimIndex = pageTableLength - 1;
+	}
+
+	public void accessed(int page) {
+		referenceBit[page] = true;
+	}
+
+	public void inserted(int page, int blockId) {
+		referenceBit[page] = true;
+	}
+
+	/**
+	 * Scans every page once, starting after the victimIndex, for a page that isn't busy,
+	 * isn't recently used and whose dirtyBit is equal to dirty.
+	 * If clearReference is true, the referenceBits of the pages passed over are flipped.
+	 *
+	 * @param dirty The dirtyBit the victim must have
+	 * @param clearReference whether to flip the referenceBits while scanning
+	 * @return index for victim page, or -1 if not found
+	 */
+	private int scan(boolean dirty, boolean clearReference) {
+		for (int i = 0; i < referenceBit.length; i++) {
+			victimIndex = (victimIndex + 1) % referenceBit.length;
+			if (pages.isBusy(victimIndex)) {
+				continue;
+			}
+			if (!referenceBit[victimIndex] && pages.isDirty(victimIndex) == dirty) {
+				return victimIndex;
+			}
+			if (clearReference) {
+				referenceBit[victimIndex] = false;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Chooses the next victim page, looking for (0, 0) and then (0, 1) pages, at most twice.
+	 * After the first round every referenceBit has been cleared, so the second round always finds a page
+	 * unless every page is busy, in which case returns -1.
+	 *
+	 * @return index for victim page
+	 */
+	public int victim(int blockId) {
+		for (int round = 0; round < 2; round++) {
+			int index = scan(false, false);
+			if (index == -1) {
+				index = scan(true, true);
+			}
+			if (index != -1) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	public void reset() {
+		for (int i = 0; i < referenceBit.length; i++) {
+			referenceBit[i] = false;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ * HddModel class times a hard disk. Serving a block that isn't in the track buffer takes
+ *   seek     - nothing on the same track; otherwise trackToTrack plus a part of fullStroke - trackToTrack
+ *              that grows with the square root of the distance, as the arm accelerates and then coasts
+ *   rotation - until the block's sector comes under the head; the platter turns continuously,
+ *              so this depends on the time the request is served
+ *   transfer - one sector's share of a rotation
+ * After a read, the drive keeps the whole track in its buffer, so another read from the same track
+ * takes only bufferNanos. A write goes through to the platter and updates the buffer if the track is in it.
+ *
+ *
+ */
+
+
+public class HddModel implements DeviceModel {
+	private static final long trackToTrackNanos = 800000L;		// 0.8 ms
+	private static final long fullStrokeNanos = 15000000L;		// 15 ms
+	private static final long bufferNanos = 50000L;				// 0.05 ms over the interface
+
+	private int blocksPerTrack;
+	private int tracks;
+	private long rotationNanos;				// time of one rotation
+	private long startNanos;				// time at which the first sector was under the head
+	private int bufferedTrack;				// track in the buffer, or -1
+
+
+	/**
+	 * @param blockCount The number of blocks on the disk
+	 * @param blocksPerTrack The number of blocks on one track
+	 * @param rpm rotations per minute
+	 */
+	public HddModel(int blockCount, int blocksPerTrack, int rpm) {
+		this.blocksPerTrack = Math.max(1, blocksPerTrack);
+		tracks = (blockCount + this.blocksPerTrack - 1) / this.blocksPerTrack;
+		rotationNanos = 60000000000L / Math.max(1, rpm);
+		startNanos = System.nanoTime();
+		bufferedTrack = -1;
+	}
+
+	public long serviceNanos(int command, int blockId, int headBlockId) {
+		if (command == DiskRequest.SYNC) {
+			return 0;			// writes have gone through already
+		}
+
+		int track = blockId / blocksPerTrack;
+		if (command == DiskRequest.READ && track == bufferedTrack) {
+			return bufferNanos;
+		}
+
+		long seek = seekNanos(Math.abs(track - headBlockId / blocksPerTrack));
+		long sectorNanos = rotationNanos / blocksPerTrack;
+		long angle = (System.nanoTime() + seek - startNanos) % rotationNanos;
+		long sectorAngle = (blockId % blocksPerTrack) * sectorNanos;
+		long rotation = (sectorAngle - angle + rotationNanos) % rotationNanos;
+
+		if (command == DiskRequest.READ) {
+			bufferedTrack = track;
+		}
+		return seek + rotation + sectorNanos;
+	}
+
+	public int parallelism() {
+		return 1;
+	}
+
+	/**
+	 * @param distance The number of tracks to cross
+	 * @return nanoseconds the arm takes to move
+	 */
+	private long seekNanos(int distance) {
+		if (distance == 0) {
+			return 0;
+		}
+		double fraction = Math.sqrt((double) distance / Math.max(1, tracks - 1));
+		return trackToTrackNanos + (long) ((fullStrokeNanos - trackToTrackNanos) * fraction);
+	}
+}
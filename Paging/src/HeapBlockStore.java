@@ -0,0 +1,174 @@
+/**
+ *
+ * HeapBlockStore class keeps the disk in the Java heap, faulting each block in from the DISK file
+ * the first time it is read, so that booting reads nothing and takes the same time whatever the size of the disk.
+ * Memory is allocated in chunks of CHUNK_BLOCKS blocks, when a block of the chunk is first touched,
+ * so an untouched part of the disk costs nothing but a null reference.
+ *
+ * The blocks that are in memory are remembered in a BitSet, and so are the blocks written since the last sync;
+ * sync() writes only those, one positional write per run of consecutive dirty blocks in a chunk,
+ * so that its cost depends on the changed data rather than the size of the disk.
+ *
+ *
+ */
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class HeapBlockStore implements BlockStore {
+	private static final int CHUNK_BLOCKS = 64;	// blocks allocated at once
+
+	private int blockSize;				// bytes per block
+	private int blockCount;				// number of blocks
+	private byte[][] chunks;			// contents of the disk, null where nothing has been touched
+	private BitSet residentBlocks;		// blocks in chunks, read from the DISK file or written
+	private BitSet dirtyBlocks;			// blocks written since the last sync
+	private FileChannel file;			// the DISK file
+	private long fileSize;				// bytes of the disk in the DISK file; the rest of the disk is zeros
+	private boolean resized;			// whether the DISK file has been made the size of the disk
+
+
+	/**
+	 * The constructor opens the DISK file, or creates it, without reading it.
+	 *
+	 * @param blockCount The number of blocks
+	 * @param blockSize The number of bytes per block
+	 * @param fileName The DISK file
+	 */
+	public HeapBlockStore(int blockCount, int blockSize, String fileName) {
+		this.blockSize = blockSize;
+		this.blockCount = blockCount;
+		chunks = new byte[(blockCount + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS][];
+		residentBlocks = new BitSet(blockCount);
+		dirtyBlocks = new BitSet(blockCount);
+		resized = false;
+
+		try {
+			if (!new File(fileName).exists()) {
+				SysLib.cerr("threadOS: DISK created\n");
+			}
+			file = new RandomAccessFile(fileName, "rw").getChannel();
+			fileSize = Math.min(file.size(), (long) blockCount * blockSize);
+		} catch (IOException e) {
+			SysLib.cerr(e.toString() + "\n");
+			file = null;
+			fileSize = 0;
+		}
+	}
+
+	public boolean read(int blockId, byte buffer[]) {
+		if (!residentBlocks.get(blockId)) {
+			fault(blockId);
+		}
+		byte[] chunk = chunks[blockId / CHUNK_BLOCKS];
+		System.arraycopy(chunk, (blockId % CHUNK_BLOCKS) * blockSize, buffer, 0, blockSize);
+		return true;
+	}
+
+	/**
+	 * Copies a block into buffer, reading it from the DISK file if it isn't in memory, without faulting it in.
+	 */
+	public boolean readThrough(int blockId, byte buffer[]) {
+		if (residentBlocks.get(blockId)) {
+			return read(blockId, buffer);
+		}
+		Arrays.fill(buffer, 0, blockSize, (byte) 0);
+		readFromFile(blockId, buffer, 0);
+		return true;
+	}
+
+	public void write(int blockId, byte buffer[]) {
+		System.arraycopy(buffer, 0, chunk(blockId), (blockId % CHUNK_BLOCKS) * blockSize, blockSize);
+		residentBlocks.set(blockId);
+		dirtyBlocks.set(blockId);
+	}
+
+	/**
+	 * Writes the blocks modified since the last sync to the DISK file, and forces them to the device.
+	 * At the first sync, the DISK file is made the size of the disk, as a full rewrite would do;
+	 * a shorter file is extended with zeros, and anything beyond the disk is dropped.
+	 *
+	 * @throws IOException if the DISK file can't be written
+	 */
+	public void sync() throws IOException {
+		if (file == null) {
+			throw new IOException("DISK is not open");
+		}
+		if (!resized) {
+			long diskBytes = (long) blockCount * blockSize;
+			if (file.size() > diskBytes) {
+				file.truncate(diskBytes);
+			} else if (file.size() < diskBytes) {
+				file.write(ByteBuffer.allocate(1), diskBytes - 1);
+			}
+			resized = true;
+		}
+
+		int first = dirtyBlocks.nextSetBit(0);
+		while (first >= 0) {
+			// a run ends at a clean block or at the end of its chunk
+			int chunkEnd = (first / CHUNK_BLOCKS + 1) * CHUNK_BLOCKS;
+			int end = Math.min(dirtyBlocks.nextClearBit(first), chunkEnd);
+			ByteBuffer run = ByteBuffer.wrap(chunks[first / CHUNK_BLOCKS], (first % CHUNK_BLOCKS) * blockSize,
+					(end - first) * blockSize);
+			long position = (long) first * blockSize;
+			while (run.hasRemaining()) {
+				position += file.write(run, position);
+			}
+			dirtyBlocks.clear(first, end);
+			first = dirtyBlocks.nextSetBit(end);
+		}
+		file.force(false);
+	}
+
+	/**
+	 * Reads a block from the DISK file into its chunk. A block beyond the end of the file is zeros.
+	 *
+	 * @param blockId The number that specifies the block
+	 */
+	private void fault(int blockId) {
+		readFromFile(blockId, chunk(blockId), (blockId % CHUNK_BLOCKS) * blockSize);
+		residentBlocks.set(blockId);
+	}
+
+	/**
+	 * Reads a block from the DISK file into data at offset. Nothing is read for a block beyond the end of the file.
+	 *
+	 * @param blockId The number that specifies the block
+	 * @param data array in which the block is going to be stored
+	 * @param offset where the block goes in data
+	 */
+	private void readFromFile(int blockId, byte data[], int offset) {
+		long position = (long) blockId * blockSize;
+		if (position < fileSize) {
+			ByteBuffer block = ByteBuffer.wrap(data, offset, (int) Math.min(blockSize, fileSize - position));
+			try {
+				while (block.hasRemaining()) {
+					int bytes = file.read(block, position);
+					if (bytes < 0) {
+						break;
+					}
+					position += bytes;
+				}
+			} catch (IOException e) {
+				SysLib.cerr(e.toString() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * @param blockId The number that specifies the block
+	 * @return the chunk that holds the block, allocated if it wasn't
+	 */
+	private byte[] chunk(int blockId) {
+		int index = blockId / CHUNK_BLOCKS;
+		if (chunks[index] == null) {
+			chunks[index] = new byte[CHUNK_BLOCKS * blockSize];
+		}
+		return chunks[index];
+	}
+}
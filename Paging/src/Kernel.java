@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Kernel
 {
@@ -39,6 +41,19 @@ public final static int SEEK    = 17; // SysLib.seek( int fd, int offest,
 public final static int FORMAT  = 18; // SysLib.format( int files )
 public final static int DELETE  = 19; // SysLib.delete( String fileName )
 
+// Cache instrumentation
+public final static int CSTAT   = 20; // SysLib.cstat( long stats[] )
+public final static int CRESIZE = 21; // SysLib.cresize( int pages )
+public final static int CREADV  = 22; // SysLib.creadv( int blks[], byte b[] )
+public final static int CWRITEV = 23; // SysLib.cwritev( int blks[], byte b[] )
+public final static int DSTAT   = 24; // SysLib.dstat( long stats[] )
+public final static int AREAD   = 25; // SysLib.aread( int blk, byte b[] )
+public final static int AWRITE  = 26; // SysLib.awrite( int blk, byte b[] )
+public final static int APOLL   = 27; // SysLib.apoll( int ticket )
+public final static int AWAIT   = 28; // SysLib.await( int ticket )
+public final static int AWAITALL= 29; // SysLib.awaitAll( int tickets[] )
+public final static int AWAITANY= 30; // SysLib.awaitAny( int tickets[] )
+
 // Predefined file descriptors
 public final static int STDIN  = 0;
 public final static int STDOUT = 1;
@@ -50,15 +65,20 @@ public final static int ERROR = -1;
 
 // System thread references
 private static Scheduler scheduler;
-private static Disk disk;
+private static BlockDevice disk;
 private static Cache cache;
+private static int diskBlocks;       // number of blocks on the disk
 
 // Synchronized Queues
 private static SyncQueue waitQueue;  // for threads to wait for their child
 private static SyncQueue ioQueue;    // I/O queue
 
 private final static int COND_DISK_REQ = 1; // wait condition
-private final static int COND_DISK_FIN = 2; // wait condition
+
+// Disk requests made by aread/awrite, by ticket
+private static ConcurrentHashMap<Integer, DiskRequest> diskTickets
+= new ConcurrentHashMap<Integer, DiskRequest>( );
+private static AtomicInteger nextTicket = new AtomicInteger( );
 
 // Standard input
 private static BufferedReader input
@@ -76,11 +96,65 @@ case INTERRUPT_SOFTWARE: // System calls
     scheduler.start( );
 
     // instantiate and start a disk
-    disk = new Disk( 1000 );
+    // -DthreadOS.disk.blocks=n sets the number of disk blocks
+    // -DthreadOS.disk.store=heap|mapped|compact|deflate chooses how the
+    //   blocks are kept; -DthreadOS.disk.mapped=true is the same as mapped
+    // -DthreadOS.disk.queueDepth=n lets n requests be queued at once
+    // -DthreadOS.disk.scheduler=fifo|sstf|scan|clook|deadline orders them
+    // -DthreadOS.disk.deadline=ms bounds the wait under deadline
+    // -DthreadOS.disk.count=n spreads the blocks over n disks, DISK0 ..
+    // -DthreadOS.disk.raid=0|1 stripes or mirrors them
+    // -DthreadOS.disk.stripeSize=n keeps n consecutive blocks on a disk
+    // -DthreadOS.disk.model=classic|hdd|ssd|ram chooses the timing model
+    // -DthreadOS.disk.journal=true journals the writes in DISK.log
+    // -DthreadOS.disk.checksums=true checks each block read against DISK.crc
+    // -DthreadOS.disk.scrubRate=n verifies up to n idle blocks a second
+    diskBlocks = Integer.getInteger( "threadOS.disk.blocks", 1000 );
+    String diskStore = System.getProperty( "threadOS.disk.store",
+              Boolean.getBoolean( "threadOS.disk.mapped" ) ? "mapped" : "heap" );
+    int queueDepth = Integer.getInteger( "threadOS.disk.queueDepth", 1 );
+    String diskScheduler = System.getProperty( "threadOS.disk.scheduler", "fifo" );
+    int deadline = Integer.getInteger( "threadOS.disk.deadline", 500 );
+    int diskCount = Integer.getInteger( "threadOS.disk.count", 1 );
+    String diskModel = System.getProperty( "threadOS.disk.model", "classic" );
+    boolean journaled = Boolean.getBoolean( "threadOS.disk.journal" );
+    boolean checksummed = Boolean.getBoolean( "threadOS.disk.checksums" );
+    int scrubRate = Integer.getInteger( "threadOS.disk.scrubRate", 100 );
+    if ( diskCount > 1 )
+        disk = new DiskArray( diskBlocks, diskCount,
+                  Integer.getInteger( "threadOS.disk.raid", 0 ) == 1,
+                  Integer.getInteger( "threadOS.disk.stripeSize", 8 ),
+                  diskStore, queueDepth, diskScheduler, deadline, diskModel,
+                  journaled, checksummed, scrubRate );
+    else
+        disk = new Disk( diskBlocks, diskStore, queueDepth,
+                 new DiskScheduler( diskScheduler, deadline ), "DISK",
+                 Disk.newDeviceModel( diskModel, diskBlocks ), journaled,
+                 checksummed, scrubRate );
     disk.start( );
 
     // instantiate a cache memory
-    cache = new Cache( disk.blockSize, 10 );
+    // -DthreadOS.cache.pages=n sets the number of cache pages
+    // -DthreadOS.cache.stripes=n splits it into n independently locked stripes
+    // -DthreadOS.cache.policy=clock|esc|arc|2q chooses the replacement policy
+    cache = new Cache( Disk.blockSize,
+               Integer.getInteger( "threadOS.cache.pages", 10 ),
+               Integer.getInteger( "threadOS.cache.stripes", 1 ),
+               System.getProperty( "threadOS.cache.policy", "esc" ) );
+    cache.getStats( ).register( ); // readable through JMX as threadOS:type=Cache
+
+    // -DthreadOS.cache.writeBehind=true writes dirty pages back in the background
+    // once more than dirtyHigh percent of them are dirty (down to dirtyLow percent),
+    // or once one has been dirty for dirtyAge milliseconds
+    if ( Boolean.getBoolean( "threadOS.cache.writeBehind" ) )
+        cache.startWriteBehind(
+            Integer.getInteger( "threadOS.cache.dirtyHigh", 50 ),
+            Integer.getInteger( "threadOS.cache.dirtyLow", 20 ),
+            Integer.getInteger( "threadOS.cache.dirtyAge", 1000 ) );
+
+    // -DthreadOS.cache.readAhead=n prefetches up to n blocks ahead of sequential reads
+    if ( Integer.getInteger( "threadOS.cache.readAhead", 0 ) > 0 )
+        cache.startReadAhead( Integer.getInteger( "threadOS.cache.readAhead" ), diskBlocks );
 
     // instantiate synchronized queues
     ioQueue = new SyncQueue( );
@@ -112,39 +186,26 @@ case INTERRUPT_SOFTWARE: // System calls
     scheduler.sleepThread( param ); // param = milliseconds
     return OK;
     case RAWREAD: // read a block of data from disk
-    while ( disk.read( param, ( byte[] )args ) == false )
+    DiskRequest request;
+    if ( !isBlockId( param ) )
+        return ERROR;
+    while ( ( request = disk.read( param, ( byte[] )args ) ) == null )
         ioQueue.enqueueAndSleep( COND_DISK_REQ );
-    while ( disk.testAndResetReady( ) == false )
-        ioQueue.enqueueAndSleep( COND_DISK_FIN );
-
-    // it's possible that a thread waiting to make a request was released by the disk,
-    // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-    // and then went back to sleep
-    Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
+    waitForDisk( request );
 
-    // now you can access data in buffer
-    return OK;
+    // now you can access data in buffer, unless the block is corrupt
+    return request.isFailed( ) ? ERROR : OK;
     case RAWWRITE: // write a block of data to disk
-    while ( disk.write( param, ( byte[] )args ) == false )
+    if ( !isBlockId( param ) )
+        return ERROR;
+    while ( ( request = disk.write( param, ( byte[] )args ) ) == null )
         ioQueue.enqueueAndSleep( COND_DISK_REQ );
-    while ( disk.testAndResetReady( ) == false )
-        ioQueue.enqueueAndSleep( COND_DISK_FIN );
-    // it's possible that a thread waiting to make a request was released by the disk,
-    // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-    // and then went back to sleep
-    Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
-
+    waitForDisk( request );
     return OK;
     case SYNC:     // synchronize disk data to a real file
-    while ( disk.sync( ) == false )
+    while ( ( request = disk.sync( ) ) == null )
         ioQueue.enqueueAndSleep( COND_DISK_REQ );
-    while ( disk.testAndResetReady( ) == false )
-        ioQueue.enqueueAndSleep( COND_DISK_FIN );
-
-    // it's possible that a thread waiting to make a request was released by the disk,
-    // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-    // and then went back to sleep
-    Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
+    waitForDisk( request );
     return OK;
     case READ:
     switch ( param ) {
@@ -196,6 +257,71 @@ case INTERRUPT_SOFTWARE: // System calls
     case CFLUSH:  // to be implemented in assignment 4
     cache.flush( );
     return OK;
+    case CSTAT:   // copy the cache counters into args (see CacheStats)
+    cache.getStats( ).snapshot( ( long[] )args );
+    return OK;
+    case CRESIZE: // change the number of cache pages to param
+    return cache.resize( param ) ? OK : ERROR;
+    case CREADV:  // read the blocks args[0] into args[1]
+    return cache.readv( ( int[] )( ( Object[] )args )[0],
+                ( byte[] )( ( Object[] )args )[1] ) ? OK : ERROR;
+    case CWRITEV: // write args[1] to the blocks args[0]
+    return cache.writev( ( int[] )( ( Object[] )args )[0],
+                 ( byte[] )( ( Object[] )args )[1] ) ? OK : ERROR;
+    case DSTAT:   // copy the disk statistics into args
+    disk.getStats( ( long[] )args );
+    return OK;
+    case AREAD:   // start reading block param into args, return a ticket
+    if ( !isBlockId( param ) )
+        return ERROR;
+    while ( ( request = disk.read( param, ( byte[] )args ) ) == null )
+        ioQueue.enqueueAndSleep( COND_DISK_REQ );
+    return newTicket( request );
+    case AWRITE:  // start writing args to block param, return a ticket
+    if ( !isBlockId( param ) )
+        return ERROR;
+    while ( ( request = disk.write( param, ( byte[] )args ) ) == null )
+        ioQueue.enqueueAndSleep( COND_DISK_REQ );
+    return newTicket( request );
+    case APOLL:   // 1 if ticket param is done, 0 if not
+    request = diskTickets.get( param );
+    if ( request == null )
+        return ERROR;
+    return request.isDone( ) ? 1 : 0;
+    case AWAIT:   // wait for ticket param and release it
+    request = diskTickets.remove( param );
+    if ( request == null )
+        return ERROR;
+    request.await( );
+    return request.isFailed( ) ? ERROR : OK;
+    case AWAITALL: // wait for and release every ticket in args
+    // every ticket is checked before any is released, so that an unknown
+    // one leaves them all as they were
+    int[] all = ( int[] )args;
+    for ( int ticket : all )
+        if ( !diskTickets.containsKey( ticket ) )
+            return ERROR;
+    boolean failed = false;
+    for ( int ticket : all ) {
+        request = diskTickets.remove( ticket );
+        if ( request == null )
+            continue;  // the same ticket twice
+        request.await( );
+        failed |= request.isFailed( );
+    }
+    return failed ? ERROR : OK;
+    case AWAITANY: // wait for one of the tickets in args, release and return it
+    // or ERROR if its request failed, e.g. its block is corrupt
+    int[] tickets = ( int[] )args;
+    if ( tickets.length == 0 )
+        return ERROR;
+    DiskRequest[] requests = new DiskRequest[tickets.length];
+    for ( int i = 0; i < tickets.length; i++ )
+        if ( ( requests[i] = diskTickets.get( tickets[i] ) ) == null )
+            return ERROR;
+    int served = DiskRequest.awaitAny( requests );
+    diskTickets.remove( tickets[served] );
+    return requests[served].isFailed( ) ? ERROR : tickets[served];
     case OPEN:    // to be implemented in project
     return OK;
     case CLOSE:   // to be implemented in project
@@ -211,11 +337,13 @@ case INTERRUPT_SOFTWARE: // System calls
     }
     return ERROR;
 case INTERRUPT_DISK: // Disk interrupts
-    // wake up the thread waiting for a service completion
-    ioQueue.dequeueAndWakeup( COND_DISK_FIN );
+    // wake up the thread waiting for the request just served
+    if ( args != null )
+        ( ( DiskRequest )args ).complete( );
 
-    // wake up the thread waiting for a request acceptance
-    //    ioQueue.dequeueAndWakeup(COND_DISK_REQ);
+    // the request left a slot in the disk queue, so wake up a thread
+    // waiting to make a request
+    ioQueue.dequeueAndWakeup( COND_DISK_REQ );
 
     return OK;
 case INTERRUPT_IO:   // other I/O interrupts (not implemented)
@@ -224,6 +352,28 @@ case INTERRUPT_IO:   // other I/O interrupts (not implemented)
 return OK;
 }
 
+// Checking the blockId of a read or write before it goes to the disk
+// The disk turns a wrong one down the same way as a request it has no room
+// for, so the thread would wait for room under COND_DISK_REQ for good
+private static boolean isBlockId( int blockId ) {
+    return blockId >= 0 && blockId < diskBlocks;
+}
+
+// Waiting for the disk to serve a request
+private static void waitForDisk( DiskRequest request ) {
+    // only the interrupt for this request wakes the thread up
+    request.await( );
+    disk.recordLatency( request );
+}
+
+// Registering an asynchronous disk request under a new ticket
+private static int newTicket( DiskRequest request ) {
+    // tickets wrap around to 0 rather than becoming negative like ERROR
+    int ticket = nextTicket.getAndIncrement( ) & Integer.MAX_VALUE;
+    diskTickets.put( ticket, request );
+    return ticket;
+}
+
 // Spawning a new thread
 private static int sysExec( String args[] ) {
 String thrName = args[0]; // args[0] has a thread name
@@ -0,0 +1,110 @@
+/**
+ *
+ * MappedBlockStore class maps the DISK file into memory instead of loading it, so booting doesn't read the disk
+ * and the blocks live in the operating system's page cache rather than in the Java heap.
+ * A single mapping can't exceed 2 GB, so the file is mapped in segments of SEGMENT_BYTES each,
+ * which lets the disk grow up to 2^31 blocks.
+ *
+ * Reads and writes copy between the buffer and the mapping. The blocks written since the last sync
+ * are remembered in a BitSet, and sync() forces only the segments that hold them.
+ * The blocks are copied through a duplicate of their segment, and a segment is forced whole, since the absolute
+ * bulk get and put and the ranged force of MappedByteBuffer need Java 13.
+ *
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+public class MappedBlockStore implements BlockStore {
+	private static final int SEGMENT_BYTES = 1 << 30;	// bytes mapped by each segment
+
+	private int blockSize;				// bytes per block
+	private int blocksPerSegment;		// blocks mapped by each segment
+	private MappedByteBuffer[] segments;	// the mappings of the DISK file
+	private BitSet dirtyBlocks;			// blocks written since the last sync
+
+
+	/**
+	 * The constructor creates the DISK file or changes its length to that of the disk, and maps it.
+	 * A file that was shorter than the disk is extended with zeros.
+	 *
+	 * @param blockCount The number of blocks
+	 * @param blockSize The number of bytes per block
+	 * @param fileName The DISK file
+	 * @throws IOException if the DISK file can't be opened or mapped
+	 */
+	public MappedBlockStore(int blockCount, int blockSize, String fileName) throws IOException {
+		this.blockSize = blockSize;
+		blocksPerSegment = SEGMENT_BYTES / blockSize;
+		dirtyBlocks = new BitSet(blockCount);
+
+		RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+		try {
+			long diskBytes = (long) blockCount * blockSize;
+			if (raf.length() == 0) {
+				SysLib.cerr("threadOS: DISK created\n");
+			}
+			if (raf.length() != diskBytes) {
+				raf.setLength(diskBytes);
+			}
+
+			// The mappings stay valid after the file is closed.
+			FileChannel channel = raf.getChannel();
+			segments = new MappedByteBuffer[(blockCount + blocksPerSegment - 1) / blocksPerSegment];
+			for (int i = 0; i < segments.length; i++) {
+				long position = (long) i * SEGMENT_BYTES;
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+						Math.min(SEGMENT_BYTES, diskBytes - position));
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public boolean read(int blockId, byte buffer[]) {
+		view(blockId).get(buffer, 0, blockSize);
+		return true;
+	}
+
+	/**
+	 * Same as read(), since the blocks are read from the mapping and aren't copied.
+	 */
+	public boolean readThrough(int blockId, byte buffer[]) {
+		return read(blockId, buffer);
+	}
+
+	public void write(int blockId, byte buffer[]) {
+		view(blockId).put(buffer, 0, blockSize);
+		dirtyBlocks.set(blockId);
+	}
+
+	/**
+	 * Forces each segment that holds a block modified since the last sync to the DISK file.
+	 */
+	public void sync() {
+		int first = dirtyBlocks.nextSetBit(0);
+		while (first >= 0) {
+			int segment = first / blocksPerSegment;
+			int end = (int) Math.min((long) (segment + 1) * blocksPerSegment, Integer.MAX_VALUE);
+			segments[segment].force();
+			dirtyBlocks.clear(first, end);
+			first = dirtyBlocks.nextSetBit(end);
+		}
+	}
+
+	/**
+	 * @param blockId The number that specifies the block
+	 * @return a buffer on the block's segment, positioned at the block; its own position leaves the segment's alone
+	 */
+	private ByteBuffer view(int blockId) {
+		ByteBuffer view = segments[blockId / blocksPerSegment].duplicate();
+		view.position((blockId % blocksPerSegment) * blockSize);
+		return view;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ * PageLists class keeps a fixed set of nodes (numbered 0 .. nodes - 1) in a few doubly linked lists.
+ * Each node is in at most one list at a time. The links are stored in int arrays,
+ * so moving a node costs O(1) and never allocates. Replacement policies use it for their LRU and FIFO lists,
+ * with the head of a list being its least recently used (or oldest) node.
+ *
+ *
+ */
+
+
+public class PageLists {
+	public static final int NONE = -1;
+
+	private int[] prev;				// previous node in the same list
+	private int[] next;				// next node in the same list
+	private int[] owner;			// list that each node is in, or NONE
+	private int[] head;				// first node of each list
+	private int[] tail;				// last node of each list
+	private int[] size;				// number of nodes in each list
+
+
+	/**
+	 * @param nodes The total number of nodes
+	 * @param lists The number of lists
+	 */
+	public PageLists(int nodes, int lists) {
+		prev = new int[nodes];
+		next = new int[nodes];
+		owner = new int[nodes];
+		head = new int[lists];
+		tail = new int[lists];
+		size = new int[lists];
+		clear();
+	}
+
+	/**
+	 * Removes every node from every list.
+	 */
+	public void clear() {
+		for (int i = 0; i < owner.length; i++) {
+			prev[i] = NONE;
+			next[i] = NONE;
+			owner[i] = NONE;
+		}
+		for (int i = 0; i < head.length; i++) {
+			head[i] = NONE;
+			tail[i] = NONE;
+			size[i] = 0;
+		}
+	}
+
+	/**
+	 * Appends the node to the tail of the list, removing it from its current list first.
+	 *
+	 * @param list The list to append to
+	 * @param node The node to append
+	 */
+	public void addLast(int list, int node) {
+		remove(node);
+
+		prev[node] = tail[list];
+		next[node] = NONE;
+		if (tail[list] == NONE) {
+			head[list] = node;
+		} else {
+			next[tail[list]] = node;
+		}
+		tail[list] = node;
+		owner[node] = list;
+		size[list]++;
+	}
+
+	/**
+	 * Removes the node from its list. Does nothing if it isn't in any list.
+	 *
+	 * @param node The node to remove
+	 */
+	public void remove(int node) {
+		int list = owner[node];
+		if (list == NONE) {
+			return;
+		}
+
+		if (prev[node] == NONE) {
+			head[list] = next[node];
+		} else {
+			next[prev[node]] = next[node];
+		}
+		if (next[node] == NONE) {
+			tail[list] = prev[node];
+		} else {
+			prev[next[node]] = prev[node];
+		}
+
+		prev[node] = NONE;
+		next[node] = NONE;
+		owner[node] = NONE;
+		size[list]--;
+	}
+
+	/**
+	 * @param list The list
+	 * @return the first node of the list, or NONE if it is empty
+	 */
+	public int first(int list) {
+		return head[list];
+	}
+
+	/**
+	 * @param node The node
+	 * @return the node after it in the same list, or NONE
+	 */
+	public int next(int node) {
+		return next[node];
+	}
+
+	/**
+	 * @param node The node
+	 * @return the list that the node is in, or NONE
+	 */
+	public int listOf(int node) {
+		return owner[node];
+	}
+
+	/**
+	 * @param list The list
+	 * @return the number of nodes in the list
+	 */
+	public int size(int list) {
+		return size[list];
+	}
+}
@@ -0,0 +1,18 @@
+/**
+ *
+ * RamModel class is a device with no latency, for measuring the software above the disk by itself.
+ *
+ *
+ */
+
+
+public class RamModel implements DeviceModel {
+
+	public long serviceNanos(int command, int blockId, int headBlockId) {
+		return 0;
+	}
+
+	public int parallelism() {
+		return 1;
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ * ReplacementPolicy interface decides which page of a cache stripe is evicted on a miss.
+ * The stripe reports every hit and every newly stored block, and asks for a victim when it has no free page.
+ * All the methods are called with the stripe's lock held, so implementations don't need their own locking.
+ *
+ * Implementations:
+ *   clock - second-chance clock with a single reference bit
+ *   esc   - enhanced second-chance clock that prefers clean pages over dirty ones (default)
+ *   arc   - Adaptive Replacement Cache
+ *   2q    - 2Q with a FIFO for blocks seen once and an LRU list for blocks seen again
+ *
+ *
+ */
+
+
+public interface ReplacementPolicy {
+
+	/**
+	 * Pages interface lets a policy look at the state of the stripe's pages.
+	 */
+	public interface Pages {
+		/**
+		 * @param page index for the page
+		 * @return true if a disk operation on the page is in progress, in which case it can't be a victim
+		 */
+		boolean isBusy(int page);
+
+		/**
+		 * @param page index for the page
+		 * @return true if the page has been modified since it was last written back
+		 */
+		boolean isDirty(int page);
+
+		/**
+		 * @param page index for the page
+		 * @return blockId stored in the page, or -1 if the page is free
+		 */
+		int blockIdOf(int page);
+	}
+
+	/**
+	 * Called when the block in the page is read or written again.
+	 *
+	 * @param page index for the page
+	 */
+	void accessed(int page);
+
+	/**
+	 * Called when blockId, which was not in Cache, is stored in the page.
+	 * The page is either a free page or the one returned by the last call to victim().
+	 *
+	 * @param page index for the page
+	 * @param blockId The number that specifies the block
+	 */
+	void inserted(int page, int blockId);
+
+	/**
+	 * Chooses the page to evict so that blockId can be stored. The page must not be busy.
+	 * The policy forgets the evicted block's page; inserted() is called next for the same page.
+	 *
+	 * @param blockId The number that specifies the block that is going to be stored
+	 * @return index for victim page, or -1 if every page is busy
+	 */
+	int victim(int blockId);
+
+	/**
+	 * Called when every page is freed.
+	 */
+	void reset();
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ * Scrubber class walks a Disk's blocks round and round, checking their checksums,
+ * so that a damaged block is found even if no program reads it.
+ * It runs at the lowest priority, verifies at most blocksPerSecond blocks a second,
+ * and skips its turn while the Disk has requests queued, so that it uses only idle time.
+ *
+ *
+ */
+
+
+import java.util.concurrent.locks.LockSupport;
+
+public class Scrubber extends Thread {
+	private Disk disk;
+	private ChecksummedBlockStore store;
+	private int blockCount;
+	private long intervalNanos;			// time between two verifications
+
+
+	/**
+	 * @param disk The Disk whose idle time is used
+	 * @param store The Disk's BlockStore
+	 * @param blockCount The number of blocks
+	 * @param blocksPerSecond The most blocks to verify in a second, the I/O budget
+	 */
+	public Scrubber(Disk disk, ChecksummedBlockStore store, int blockCount, int blocksPerSecond) {
+		this.disk = disk;
+		this.store = store;
+		this.blockCount = blockCount;
+		intervalNanos = 1000000000L / Math.max(1, blocksPerSecond);
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	public void run() {
+		int blockId = 0;
+		while (true) {
+			long deadline = System.nanoTime() + intervalNanos;
+			for (long left = intervalNanos; left > 0; left = deadline - System.nanoTime()) {
+				LockSupport.parkNanos(left);
+			}
+			if (!disk.isIdle()) {
+				continue;
+			}
+
+			synchronized (store) {
+				store.verify(blockId);
+			}
+			blockId = (blockId + 1) % blockCount;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ * SsdModel class times a flash drive: a read or write takes the same time wherever the block is,
+ * and the drive serves a request on each of its channels at the same time.
+ *
+ *
+ */
+
+
+public class SsdModel implements DeviceModel {
+	private static final long readNanos = 100000L;			// 0.1 ms
+	private static final long writeNanos = 250000L;			// 0.25 ms
+	private static final long syncNanos = 1000000L;			// 1 ms to flush the drive's write cache
+
+	private int channels;
+
+
+	/**
+	 * @param channels The number of requests served at the same time
+	 */
+	public SsdModel(int channels) {
+		this.channels = Math.max(1, channels);
+	}
+
+	public long serviceNanos(int command, int blockId, int headBlockId) {
+		switch (command) {
+		case DiskRequest.READ:
+			return readNanos;
+		case DiskRequest.WRITE:
+			return writeNanos;
+		default:
+			return syncNanos;
+		}
+	}
+
+	public int parallelism() {
+		return channels;
+	}
+}
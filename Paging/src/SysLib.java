@@ -0,0 +1,259 @@
+import java.util.*;
+
+public class SysLib {
+    public static int exec( String args[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.EXEC, 0, args );
+    }
+
+    public static int join( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WAIT, 0, null );
+    }
+
+    public static int boot( ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.BOOT, 0, null );
+    }
+
+    public static int exit( ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.EXIT, 0, null );
+    }
+
+    public static int sleep( int milliseconds ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.SLEEP, milliseconds, null );
+    }
+
+    public static int disk( ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_DISK,
+				 0, 0, null );
+    }
+
+    public static int disk( DiskRequest request ) {
+	return Kernel.interrupt( Kernel.INTERRUPT_DISK,
+				 0, 0, request );
+    }
+
+    public static int cin( StringBuffer s ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.READ, 0, s );
+    }
+
+    public static int cout( String s ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WRITE, 1, s );
+    }
+
+    public static int cerr( String s ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WRITE, 2, s );
+    }
+
+    public static int rawread( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.RAWREAD, blkNumber, b );
+    }
+
+    public static int rawwrite( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.RAWWRITE, blkNumber, b );
+    }
+
+    public static int sync( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.SYNC, 0, null );
+    }
+
+    public static int cread( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CREAD, blkNumber, b );
+    }
+
+    public static int cwrite( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CWRITE, blkNumber, b );
+    }
+
+    public static int flush( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CFLUSH, 0, null );
+    }
+
+    public static int csync( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CSYNC, 0, null );
+    }
+
+    public static int cstat( long stats[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CSTAT, 0, stats );
+    }
+
+    public static int cresize( int pages ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CRESIZE, pages, null );
+    }
+
+    public static int dstat( long stats[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.DSTAT, 0, stats );
+    }
+
+    // starts reading block blkNumber into b and returns a ticket for it;
+    // b must be left alone until the ticket has been waited for
+    public static int aread( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AREAD, blkNumber, b );
+    }
+
+    // starts writing b to block blkNumber and returns a ticket for it;
+    // b must be left alone until the ticket has been waited for
+    public static int awrite( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AWRITE, blkNumber, b );
+    }
+
+    // returns 1 if the ticket's request is done, 0 if not
+    public static int apoll( int ticket ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.APOLL, ticket, null );
+    }
+
+    // waits for the ticket's request and releases the ticket; returns -1
+    // if the block read was corrupt
+    public static int await( int ticket ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AWAIT, ticket, null );
+    }
+
+    // waits for the requests of all the tickets and releases them; returns
+    // -1 if any block read was corrupt
+    public static int awaitAll( int tickets[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AWAITALL, 0, tickets );
+    }
+
+    // waits for the request of any of the tickets, releases that ticket
+    // and returns it, or -1 if that request failed
+    public static int awaitAny( int tickets[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AWAITANY, 0, tickets );
+    }
+
+    public static int creadv( int blkNumbers[], byte[] b ) {
+        Object[] args = new Object[2];
+	args[0] = blkNumbers;
+	args[1] = b;
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CREADV, 0, args );
+    }
+
+    public static int cwritev( int blkNumbers[], byte[] b ) {
+        Object[] args = new Object[2];
+	args[0] = blkNumbers;
+	args[1] = b;
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CWRITEV, 0, args );
+    }
+
+    // reads b.length / Disk.blockSize blocks starting at blkNumber
+    public static int creadRange( int blkNumber, byte[] b ) {
+	return creadv( blockRange( blkNumber, b.length / Disk.blockSize ), b );
+    }
+
+    // writes b.length / Disk.blockSize blocks starting at blkNumber
+    public static int cwriteRange( int blkNumber, byte[] b ) {
+	return cwritev( blockRange( blkNumber, b.length / Disk.blockSize ), b );
+    }
+
+    private static int[] blockRange( int first, int count ) {
+	int[] blkNumbers = new int[count];
+	for ( int i = 0; i < count; i++ ) {
+	    blkNumbers[i] = first + i;
+	}
+	return blkNumbers;
+    }
+
+    public static int format( int files ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.FORMAT, files, null );
+    }
+
+    public static int open( String fileName, String mode ) {
+        String[] args = new String[2];
+	args[0] = fileName;
+	args[1] = mode;
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.OPEN, 0, args );
+    }
+
+    public static int close( int fd ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.CLOSE, fd, null );
+    }
+
+    public static int read( int fd, byte buffer[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.READ, fd, buffer );
+    }
+
+    public static int write( int fd, byte buffer[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WRITE, fd, buffer );
+    }
+
+    public static int seek( int fd, int offset, int whence ) {
+        int[] args = new int[2];
+	args[0] = offset;
+	args[1] = whence;
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.SEEK, fd, args );
+    }
+
+    public static int fsize( int fd ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.SIZE, fd, null );
+    }
+
+    public static int delete( String fileName ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.DELETE, 0, fileName );
+    }
+
+    public static String[] stringToArgs( String s ) {
+	StringTokenizer token = new StringTokenizer( s," " );
+	String[] progArgs = new String[ token.countTokens( ) ];
+	for ( int i = 0; token.hasMoreTokens( ); i++ ) {
+	    progArgs[i] = token.nextToken( );
+	}
+	return progArgs;
+    }
+
+    public static void short2bytes( short s, byte[] b, int offset ) {
+	b[offset] = (byte)( s >> 8 );
+	b[offset + 1] = (byte)s;
+    }
+
+    public static short bytes2short( byte[] b, int offset ) {
+	short s = 0;
+        s += b[offset] & 0xff;
+	s <<= 8;
+        s += b[offset + 1] & 0xff;
+	return s;
+    }
+
+    public static void int2bytes( int i, byte[] b, int offset ) {
+	b[offset] = (byte)( i >> 24 );
+	b[offset + 1] = (byte)( i >> 16 );
+	b[offset + 2] = (byte)( i >> 8 );
+	b[offset + 3] = (byte)i;
+    }
+
+    public static int bytes2int( byte[] b, int offset ) {
+	int n = ((b[offset] & 0xff) << 24) + ((b[offset+1] & 0xff) << 16) +
+	        ((b[offset+2] & 0xff) << 8) + (b[offset+3] & 0xff);
+	return n;
+    }
+}
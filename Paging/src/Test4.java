@@ -26,12 +26,20 @@ class Test4 extends Thread {
 	private byte[] wbytes;
 	private byte[] rbytes;
 	private Random rand;
+	private long[] stats;
+	private long[] lastStats;
 
 	private void getPerformance(String msg) {
-		if (enabled == true)
+		if (enabled == true) {
 			SysLib.cout("\tTest " + msg + "(cache enabled): " + "\n\t\tAverage Read Time: " + averageReadTime
 					+ "\n\t\tAverage Write Time: " + averageWriteTime + "\n");
-		else
+			// cache counters since the previous test
+			SysLib.cstat(stats);
+			SysLib.cout("\t\tHits: " + (stats[CacheStats.HITS] - lastStats[CacheStats.HITS])
+					+ "  Misses: " + (stats[CacheStats.MISSES] - lastStats[CacheStats.MISSES])
+					+ "  Write-backs: " + (stats[CacheStats.WRITE_BACKS] - lastStats[CacheStats.WRITE_BACKS]) + "\n");
+			SysLib.cstat(lastStats);
+		} else
 			SysLib.cout("\tTest " + msg + "(cache disabled): " + "\n\t\tAverage Read Time: " + averageReadTime
 					+ "\n\t\tAverage Write Time: " + averageWriteTime + "\n");
 	}
@@ -202,16 +210,54 @@ class Test4 extends Thread {
 		averageReadTime = 1.0 * totalReadTime / 200;
 	}
 
+	private void sequentialAccess() {
+		totalReadTime = 0;
+		totalWriteTime = 0;
+		averageReadTime = 0;
+		averageWriteTime = 0;
+		for (int i = 0; i < 200; i++) {
+			for (int j = 0; j < 512; j++)
+				wbytes[j] = (byte) (i + j);
+			startTime = new Date().getTime();
+			write(i, wbytes);
+			endTime = new Date().getTime();
+			totalWriteTime += (endTime - startTime);
+		}
+		// average write time
+		averageWriteTime = 1.0 * totalWriteTime / 200;
+
+		// start reading from disk, not from the blocks still in cache
+		if (enabled == true)
+			SysLib.flush();
+		for (int i = 0; i < 200; i++) {
+			startTime = new Date().getTime();
+			read(i, rbytes);
+			endTime = new Date().getTime();
+			totalReadTime += (endTime - startTime);
+			for (int k = 0; k < 512; k++) {
+				if (rbytes[k] != (byte) (i + k)) {
+					SysLib.cerr("ERROR\n");
+					SysLib.exit();
+				}
+			}
+		}
+		// average read time
+		averageReadTime = 1.0 * totalReadTime / 200;
+	}
+
 	public Test4(String[] args) {
 		enabled = args[0].equals("enabled") ? true : false;
 		testcase = Integer.parseInt(args[1]);
 		wbytes = new byte[Disk.blockSize];
 		rbytes = new byte[Disk.blockSize];
 		rand = new Random();
+		stats = new long[CacheStats.COUNTERS];
+		lastStats = new long[CacheStats.COUNTERS];
 	}
 
 	public void run() {
 		SysLib.flush();
+		SysLib.cstat(lastStats);
 		switch (testcase) {
 		case 1:
 			randomAccess();
@@ -243,6 +289,10 @@ class Test4 extends Thread {
 			adversaryAccess();
 			getPerformance("adversary accesses");
 			break;
+		case 6:
+			sequentialAccess();
+			getPerformance("sequential accesses");
+			break;
 		}
 		SysLib.exit();
 	}
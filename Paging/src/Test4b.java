@@ -0,0 +1,56 @@
+/**
+ *
+ * Test4b class measures how the throughput of cached reads changes as the number of threads grows.
+ * For each thread count 1, 2, 4, ... up to the maximum, it spawns that many TestThread2b-style workers (TestThread4b)
+ * that read the same hot blocks concurrently, with an occasional miss on a block of their own.
+ * Run ThreadOS with -DthreadOS.cache.stripes=n to compare the single-lock cache with a striped one.
+ *
+ * Each worker has blocks of its own on the disk, so the thread count stops where they no longer fit.
+ *
+ * Usage: l Test4b [maxThreads] [accessesPerThread] [diskBlocks]
+ *
+ *
+ */
+
+
+import java.util.Date;
+
+class Test4b extends Thread {
+	private int maxThreads;
+	private int accesses;
+	private int diskBlocks;
+
+	public Test4b() {
+		this(new String[0]);
+	}
+
+	public Test4b(String[] args) {
+		maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		accesses = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		diskBlocks = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+	}
+
+	public void run() {
+		if (maxThreads > TestThread4b.maxWorkers(diskBlocks)) {
+			maxThreads = TestThread4b.maxWorkers(diskBlocks);
+			SysLib.cout("\tonly " + maxThreads + " threads fit on a disk of " + diskBlocks + " blocks\n");
+		}
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			SysLib.flush();
+
+			long startTime = new Date().getTime();
+			for (int i = 0; i < threads; i++) {
+				SysLib.exec(SysLib.stringToArgs("TestThread4b " + i + " " + accesses));
+			}
+			for (int i = 0; i < threads; i++) {
+				SysLib.join();
+			}
+			long endTime = new Date().getTime();
+
+			long elapsed = Math.max(1, endTime - startTime);
+			SysLib.cout("\tthreads = " + threads + ": " + (threads * accesses) + " reads in " + elapsed + " ms, "
+					+ (threads * accesses * 1000L / elapsed) + " reads/sec\n");
+		}
+		SysLib.exit();
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ * Test4c class measures the disk's throughput and seek distance when several threads issue raw block I/O at once.
+ * It spawns TestThread4c workers that each read or write random blocks, and reports the requests served per second,
+ * the mean number of tracks crossed per request, the mean and maximum time a request spent queued,
+ * and the mean and maximum latency from making a request to resuming after it was served.
+ * Run ThreadOS with -DthreadOS.disk.queueDepth=n and -DthreadOS.disk.scheduler=fifo|sstf|scan|clook|deadline
+ * to compare the disk scheduling policies.
+ *
+ * Usage: l Test4c [threads] [requestsPerThread] [diskBlocks]
+ *
+ *
+ */
+
+
+import java.util.Date;
+
+class Test4c extends Thread {
+	private int threads;
+	private int requests;
+	private int diskBlocks;
+
+
+	public Test4c() {
+		this(new String[0]);
+	}
+
+	public Test4c(String[] args) {
+		threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		requests = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		diskBlocks = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+	}
+
+	public void run() {
+		long[] before = new long[Disk.STATS];
+		long[] after = new long[Disk.STATS];
+		SysLib.dstat(before);
+
+		long startTime = new Date().getTime();
+		for (int i = 0; i < threads; i++) {
+			SysLib.exec(SysLib.stringToArgs("TestThread4c " + i + " " + requests + " " + diskBlocks));
+		}
+		for (int i = 0; i < threads; i++) {
+			SysLib.join();
+		}
+		long elapsed = Math.max(1, new Date().getTime() - startTime);
+		SysLib.dstat(after);
+
+		long served = Math.max(1, after[Disk.STAT_REQUESTS] - before[Disk.STAT_REQUESTS]);
+		SysLib.cout("\tthreads = " + threads + ": " + served + " requests in " + elapsed + " ms, "
+				+ (served * 1000 / elapsed) + " requests/sec\n");
+		SysLib.cout("\t\tMean seek: " + (after[Disk.STAT_TRACKS] - before[Disk.STAT_TRACKS]) * 100 / served / 100.0
+				+ " tracks  Mean wait: " + (after[Disk.STAT_WAIT_MICROS] - before[Disk.STAT_WAIT_MICROS]) / served / 1000.0
+				+ " ms  Max wait: " + after[Disk.STAT_MAX_WAIT_MICROS] / 1000.0 + " ms\n");
+		SysLib.cout("\t\tMean latency: " + (after[Disk.STAT_LATENCY_MICROS] - before[Disk.STAT_LATENCY_MICROS]) / served / 1000.0
+				+ " ms  Max latency: " + after[Disk.STAT_MAX_LATENCY_MICROS] / 1000.0 + " ms\n");
+		SysLib.exit();
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ * Test4d class compares a reader that waits for each block with a pipelined one that keeps several reads in flight.
+ * It first writes numbered blocks with awrite and awaitAll, then reads random ones back twice:
+ * once with rawread, and once with aread, keeping up to inFlight tickets and taking whichever finishes first
+ * with awaitAny. Each block is checked and then processed for a while, so the pipelined reader overlaps
+ * its processing with the disk. Run ThreadOS with -DthreadOS.disk.queueDepth=n, and a disk scheduler
+ * such as -DthreadOS.disk.scheduler=clook, so that the reads in flight can be reordered.
+ *
+ * Usage: l Test4d [blocks] [inFlight] [computeMillis]
+ *
+ *
+ */
+
+
+import java.util.Date;
+import java.util.Random;
+
+class Test4d extends Thread {
+	private static final int BLOCK_RANGE = 1000;
+
+	private int blocks;
+	private int inFlight;
+	private int computeMillis;
+	private int[] blockIds;
+	private boolean correct = true;
+
+
+	public Test4d() {
+		this(new String[0]);
+	}
+
+	public Test4d(String[] args) {
+		blocks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		computeMillis = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Random random = new Random(0);
+		blockIds = new int[blocks];
+		for (int i = 0; i < blocks; i++) {
+			blockIds[i] = random.nextInt(BLOCK_RANGE);
+		}
+	}
+
+	public void run() {
+		writeBlocks();
+
+		long startTime = new Date().getTime();
+		byte[] buffer = new byte[Disk.blockSize];
+		for (int i = 0; i < blocks; i++) {
+			SysLib.rawread(blockIds[i], buffer);
+			process(blockIds[i], buffer);
+		}
+		long waitingTime = new Date().getTime() - startTime;
+
+		startTime = new Date().getTime();
+		readPipelined();
+		long pipelinedTime = new Date().getTime() - startTime;
+
+		SysLib.cout("\t" + blocks + " reads, " + computeMillis + " ms of processing each\n");
+		SysLib.cout("\t\twaiting for each read: " + waitingTime + " ms\n");
+		SysLib.cout("\t\t" + inFlight + " reads in flight: " + pipelinedTime + " ms\n");
+		SysLib.cout("\t\t" + (correct ? "all blocks correct" : "WRONG DATA") + "\n");
+		SysLib.exit();
+	}
+
+	/**
+	 * Writes the number of each block into its first bytes, all the writes in flight at once.
+	 */
+	private void writeBlocks() {
+		int[] tickets = new int[BLOCK_RANGE];
+		byte[][] buffers = new byte[BLOCK_RANGE][Disk.blockSize];
+		for (int blockId = 0; blockId < BLOCK_RANGE; blockId++) {
+			SysLib.int2bytes(blockId, buffers[blockId], 0);
+			tickets[blockId] = SysLib.awrite(blockId, buffers[blockId]);
+		}
+		SysLib.awaitAll(tickets);
+	}
+
+	/**
+	 * Reads the blocks keeping up to inFlight reads outstanding, processing each as soon as it arrives.
+	 */
+	private void readPipelined() {
+		int[] tickets = new int[inFlight];
+		int[] slotBlock = new int[inFlight];
+		byte[][] buffers = new byte[inFlight][Disk.blockSize];
+		int issued = 0;
+		int outstanding = 0;
+
+		while (issued < blocks || outstanding > 0) {
+			// fill the free slots at the end of tickets
+			while (issued < blocks && outstanding < inFlight) {
+				slotBlock[outstanding] = blockIds[issued++];
+				tickets[outstanding] = SysLib.aread(slotBlock[outstanding], buffers[outstanding]);
+				outstanding++;
+			}
+
+			int[] waiting = new int[outstanding];
+			System.arraycopy(tickets, 0, waiting, 0, outstanding);
+			int ticket = SysLib.awaitAny(waiting);
+			int slot = 0;
+			while (tickets[slot] != ticket) {
+				slot++;
+			}
+			process(slotBlock[slot], buffers[slot]);
+
+			// move the last outstanding request into the finished slot
+			outstanding--;
+			tickets[slot] = tickets[outstanding];
+			slotBlock[slot] = slotBlock[outstanding];
+			byte[] finished = buffers[slot];
+			buffers[slot] = buffers[outstanding];
+			buffers[outstanding] = finished;
+		}
+	}
+
+	/**
+	 * Checks that the block holds its own number, and spends computeMillis on it.
+	 */
+	private void process(int blockId, byte buffer[]) {
+		if (SysLib.bytes2int(buffer, 0) != blockId) {
+			correct = false;
+		}
+		long end = System.currentTimeMillis() + computeMillis;
+		while (System.currentTimeMillis() < end) {
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ * Test4e class measures what durable writes cost, and checks that they survive a crash.
+ * It spawns TestThread4e workers that each write their own range of blocks, stamping every block with
+ * the worker and the write, and reports the writes completed per second from the first worker's start to the
+ * last one's finish (joining the workers takes ThreadOS far longer than the writes) and, with the journal on,
+ * how many writes shared each force of the journal.
+ *
+ * Modes:
+ *   write - up to inFlight writes queued at once with awrite; each is durable when it completes
+ *           if ThreadOS runs with -DthreadOS.disk.journal=true, and the writes share the journal's forces
+ *   sync  - rawwrite followed by sync, the way to make each write durable without the journal
+ *   check - rawread the blocks and count those whose stamps don't match, e.g. after killing ThreadOS
+ *           once a write run has finished, and booting it again; with -DthreadOS.disk.checksums=true,
+ *           blocks damaged in the DISK file are counted as corrupt instead, and the time shows what the
+ *           checksums cost on the read path
+ *
+ * Usage: l Test4e [write|sync|check] [threads] [writesPerThread] [inFlight]
+ *
+ *
+ */
+
+
+class Test4e extends Thread {
+	private String mode;
+	private int threads;
+	private int writes;
+	private int inFlight;
+
+
+	public Test4e() {
+		this(new String[0]);
+	}
+
+	public Test4e(String[] args) {
+		mode = args.length > 0 ? args[0] : "write";
+		threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		writes = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		inFlight = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+	}
+
+	public void run() {
+		long[] before = new long[Disk.STATS];
+		long[] after = new long[Disk.STATS];
+		SysLib.dstat(before);
+
+		TestThread4e.firstStart.set(Long.MAX_VALUE);
+		TestThread4e.lastFinish.set(Long.MIN_VALUE);
+		for (int i = 0; i < threads; i++) {
+			SysLib.exec(SysLib.stringToArgs("TestThread4e " + mode + " " + i + " " + writes + " " + inFlight));
+		}
+		for (int i = 0; i < threads; i++) {
+			SysLib.join();
+		}
+		// wall time from the first worker's start to the last one's finish
+		long elapsed = Math.max(1, (TestThread4e.lastFinish.get() - TestThread4e.firstStart.get()) / 1000000);
+		SysLib.dstat(after);
+
+		int total = threads * writes;
+		if (mode.equals("check")) {
+			// the workers report their own mismatches
+			SysLib.cout("\tchecked " + total + " blocks in " + elapsed + " ms, " + (total * 1000L / elapsed)
+					+ " reads/sec\n");
+			SysLib.cout("\t\tCorrupt blocks found: " + after[Disk.STAT_CORRUPT_BLOCKS] + "  Scrubbed blocks: "
+					+ after[Disk.STAT_SCRUBBED_BLOCKS] + "\n");
+			SysLib.exit();
+			return;
+		}
+		long commits = after[Disk.STAT_JOURNAL_COMMITS] - before[Disk.STAT_JOURNAL_COMMITS];
+		SysLib.cout("\t" + mode + ", threads = " + threads + ": " + total + " writes in " + elapsed + " ms, "
+				+ (total * 1000L / elapsed) + " writes/sec\n");
+		if (commits > 0) {
+			SysLib.cout("\t\tJournal commits: " + commits + ", " + total * 100 / commits / 100.0
+					+ " writes per commit\n");
+		}
+		SysLib.exit();
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *
+ * Test4f class compares what the BlockStores cost to sync and to read, and how large they keep the disk on the host.
+ * It drives each store directly, the way the Disk does, rather than through ThreadOS's disk requests, so that
+ * the numbers show the store and not the disk's timing model. Each round rewrites every fourth block of the disk
+ * with an 8-byte stamp followed by low-entropy data, the rest of the block being zeros, and then syncs;
+ * the blocks are then read back and their stamps checked. The stores keep their files under TEST4F,
+ * which are deleted afterwards.
+ *
+ * Usage: l Test4f [blocks] [rounds]
+ *
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+class Test4f extends Thread {
+	private static final String[] STORES = { "heap", "mapped", "compact", "deflate" };
+	private static final String FILE_NAME = "TEST4F";
+	private static final int DATA_BYTES = 120;		// low-entropy bytes after the stamp
+
+	private int blocks;
+	private int rounds;
+
+
+	public Test4f() {
+		this(new String[0]);
+	}
+
+	public Test4f(String[] args) {
+		blocks = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+		rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+	}
+
+	public void run() {
+		for (String name : STORES) {
+			deleteFiles();
+			BlockStore store = Disk.newBlockStore(name, blocks, FILE_NAME);
+			try {
+				test(name, store);
+			} catch (IOException e) {
+				SysLib.cout("\t" + name + ": " + e + "\n");
+			}
+		}
+		deleteFiles();
+		SysLib.exit();
+	}
+
+	private void test(String name, BlockStore store) throws IOException {
+		byte[] block = new byte[Disk.blockSize];
+		long syncNanos = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (int i = 0; i < blocks; i += 4) {
+				stamp(block, i, round);
+				store.write(i, block);
+			}
+			long startTime = System.nanoTime();
+			store.sync();
+			syncNanos += System.nanoTime() - startTime;
+		}
+
+		int mismatches = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < blocks; i++) {
+			if (!store.read(i, block)
+					|| (i % 4 == 0 && (SysLib.bytes2int(block, 0) != i || SysLib.bytes2int(block, 4) != rounds - 1))) {
+				mismatches++;
+			}
+		}
+		long readNanos = System.nanoTime() - startTime;
+
+		SysLib.cout("\t" + name + ": sync " + syncNanos / rounds / 100000 / 10.0 + " ms, read " + readNanos / blocks
+				+ " ns/block, file " + fileBytes() + " bytes" + (mismatches > 0 ? ", " + mismatches
+				+ " blocks don't match" : "") + "\n");
+	}
+
+	/**
+	 * Fills block with the stamp of blockId and round, low-entropy data, and zeros.
+	 */
+	private static void stamp(byte block[], int blockId, int round) {
+		Arrays.fill(block, (byte) 0);
+		SysLib.int2bytes(blockId, block, 0);
+		SysLib.int2bytes(round, block, 4);
+		for (int i = 0; i < DATA_BYTES; i++) {
+			block[8 + i] = (byte) ('a' + (blockId + i) % 4);
+		}
+	}
+
+	/**
+	 * @return the bytes the store takes on the host, whichever of its files it uses
+	 */
+	private static long fileBytes() {
+		return new File(FILE_NAME).length() + new File(FILE_NAME + ".z").length();
+	}
+
+	private static void deleteFiles() {
+		new File(FILE_NAME).delete();
+		new File(FILE_NAME + ".z").delete();
+		new File(FILE_NAME + ".z.new").delete();
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ *
+ * TestThread4b class is a worker spawned by Test4b.
+ * It reads the hot blocks shared by all the workers through the cache,
+ * and every MISS_INTERVAL-th read goes to a block only this worker uses, so that it misses.
+ *
+ *
+ */
+
+
+class TestThread4b extends Thread {
+	private static final int HOT_BLOCKS = 4;		// blocks 0 .. HOT_BLOCKS - 1 are read by every worker
+	private static final int MISS_INTERVAL = 20;
+	private static final int OWN_SPACING = 100;		// worker id's own blocks start at OWN_SPACING * (id + 1)
+	private static final int OWN_BLOCKS = 50;
+
+	private int id;
+	private int accesses;
+	private byte[] rbytes;
+
+	public TestThread4b(String[] args) {
+		id = Integer.parseInt(args[0]);
+		accesses = Integer.parseInt(args[1]);
+		rbytes = new byte[Disk.blockSize];
+	}
+
+	/**
+	 * @param diskBlocks The number of blocks on the disk
+	 * @return how many workers have their own blocks on the disk
+	 */
+	static int maxWorkers(int diskBlocks) {
+		return Math.max(0, (diskBlocks - OWN_BLOCKS) / OWN_SPACING);
+	}
+
+	public void run() {
+		for (int i = 0; i < accesses; i++) {
+			if (i % MISS_INTERVAL == MISS_INTERVAL - 1) {
+				SysLib.cread(OWN_SPACING * (id + 1) + i / MISS_INTERVAL % OWN_BLOCKS, rbytes);
+			} else {
+				SysLib.cread(i % HOT_BLOCKS, rbytes);
+			}
+		}
+		SysLib.exit();
+	}
+}
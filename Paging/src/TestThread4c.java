@@ -0,0 +1,39 @@
+/**
+ *
+ * TestThread4c class is a worker spawned by Test4c.
+ * It reads or writes random blocks with rawread and rawwrite, bypassing the cache, one request at a time.
+ *
+ *
+ */
+
+
+import java.util.Random;
+
+class TestThread4c extends Thread {
+	private int id;
+	private int requests;
+	private int diskBlocks;
+	private byte[] buffer;
+
+
+	public TestThread4c(String[] args) {
+		id = Integer.parseInt(args[0]);
+		requests = Integer.parseInt(args[1]);
+		diskBlocks = Integer.parseInt(args[2]);
+		buffer = new byte[Disk.blockSize];
+	}
+
+	public void run() {
+		Random random = new Random(id);
+		for (int i = 0; i < requests; i++) {
+			int blockId = random.nextInt(diskBlocks);
+			if (random.nextBoolean()) {
+				SysLib.rawread(blockId, buffer);
+			} else {
+				buffer[0] = (byte) id;
+				SysLib.rawwrite(blockId, buffer);
+			}
+		}
+		SysLib.exit();
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ * TestThread4e class is a worker spawned by Test4e.
+ * Worker id owns blocks id * writes through id * writes + writes - 1, and stamps each block with id and its index.
+ * In write mode it keeps up to inFlight writes queued at once with awrite, so that they can share journal commits;
+ * in sync mode it makes one rawwrite and sync at a time. In check mode it reads the blocks back
+ * and reports how many stamps don't match, and how many blocks rawread refused as corrupt. The workers time themselves, since joining threads
+ * takes ThreadOS far longer than the writes.
+ *
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class TestThread4e extends Thread {
+	// when the first worker started and the last one finished, for Test4e
+	static final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+	static final AtomicLong lastFinish = new AtomicLong(Long.MIN_VALUE);
+
+	private String mode;
+	private int id;
+	private int writes;
+	private int inFlight;
+	private byte[][] buffers;			// one per write in flight
+
+
+	public TestThread4e(String[] args) {
+		mode = args[0];
+		id = Integer.parseInt(args[1]);
+		writes = Integer.parseInt(args[2]);
+		inFlight = Integer.parseInt(args[3]);
+		buffers = new byte[inFlight][Disk.blockSize];
+	}
+
+	public void run() {
+		lower(firstStart, System.nanoTime());
+		if (mode.equals("check")) {
+			check();
+		} else if (mode.equals("sync")) {
+			for (int i = 0; i < writes; i++) {
+				SysLib.rawwrite(id * writes + i, stamp(buffers[0], i));
+				SysLib.sync();
+			}
+		} else {
+			for (int first = 0; first < writes; first += inFlight) {
+				int[] tickets = new int[Math.min(inFlight, writes - first)];
+				for (int j = 0; j < tickets.length; j++) {
+					tickets[j] = SysLib.awrite(id * writes + first + j, stamp(buffers[j], first + j));
+				}
+				SysLib.awaitAll(tickets);
+			}
+		}
+		raise(lastFinish, System.nanoTime());
+		SysLib.exit();
+	}
+
+	/**
+	 * Sets value to time if time is earlier.
+	 */
+	private static void lower(AtomicLong value, long time) {
+		long current = value.get();
+		while (time < current && !value.compareAndSet(current, time)) {
+			current = value.get();
+		}
+	}
+
+	/**
+	 * Sets value to time if time is later.
+	 */
+	private static void raise(AtomicLong value, long time) {
+		long current = value.get();
+		while (time > current && !value.compareAndSet(current, time)) {
+			current = value.get();
+		}
+	}
+
+	/**
+	 * @return buffer, stamped with id and i
+	 */
+	private byte[] stamp(byte buffer[], int i) {
+		SysLib.int2bytes(id, buffer, 0);
+		SysLib.int2bytes(i, buffer, 4);
+		return buffer;
+	}
+
+	private void check() {
+		byte[] buffer = buffers[0];
+		int mismatches = 0;
+		int corrupt = 0;
+		for (int i = 0; i < writes; i++) {
+			if (SysLib.rawread(id * writes + i, buffer) < 0) {
+				corrupt++;
+			} else if (SysLib.bytes2int(buffer, 0) != id || SysLib.bytes2int(buffer, 4) != i) {
+				mismatches++;
+			}
+		}
+		SysLib.cout("\tthread " + id + ": " + mismatches + " of " + writes + " blocks don't match, "
+				+ corrupt + " corrupt\n");
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ * TwoQueuePolicy class implements the full 2Q algorithm (Johnson and Shasha).
+ *   A1in  - FIFO of resident blocks that have been accessed once, about a quarter of the pages
+ *   A1out - FIFO of blockIds recently evicted from A1in, remembered for about half as many blocks as there are pages
+ *   Am    - LRU list of resident blocks that were accessed again after leaving A1in
+ * A block enters Am only if it is missed again while it is remembered in A1out,
+ * so a long scan passes through A1in without evicting anything from Am.
+ *
+ * Nodes 0 .. c - 1 of the PageLists are the pages, and the following nodes hold the A1out blockIds.
+ *
+ *
+ */
+
+
+public class TwoQueuePolicy implements ReplacementPolicy {
+	private static final int A1IN = 0;
+	private static final int A1OUT = 1;
+	private static final int AM = 2;
+
+	private Pages pages;				// state of the stripe's pages
+	private int capacity;				// the number of pages
+	private int inLimit;				// Kin, the target size of A1in
+	private int outLimit;				// Kout, the maximum size of A1out
+	private PageLists lists;			// A1in, A1out and Am
+	private int[] ghostBlock;			// blockId of each A1out node, indexed by node - capacity
+	private BlockIndex ghostIndex;		// blockId -> A1out node
+	private int[] freeGhosts;			// stack of unused A1out nodes
+	private int freeGhostCount;			// number of nodes in freeGhosts
+
+
+	/**
+	 * @param pages state of the stripe's pages
+	 * @param pageTableLength The total number of pages
+	 */
+	public TwoQueuePolicy(Pages pages, int pageTableLength) {
+		this.pages = pages;
+		capacity = pageTableLength;
+		inLimit = Math.max(1, capacity / 4);
+		outLimit = Math.max(1, capacity / 2);
+		lists = new PageLists(capacity + outLimit, 3);
+		ghostBlock = new int[outLimit];
+		ghostIndex = new BlockIndex(outLimit);
+		freeGhosts = new int[outLimit];
+		reset();
+	}
+
+	public void accessed(int page) {
+		// A block in A1in stays in FIFO order; only Am is kept in LRU order.
+		if (lists.listOf(page) == AM) {
+			lists.addLast(AM, page);
+		}
+	}
+
+	public void inserted(int page, int blockId) {
+		int ghost = ghostIndex.get(blockId);
+		if (ghost != -1) {
+			forgetGhost(ghost);
+			lists.addLast(AM, page);
+		} else {
+			lists.addLast(A1IN, page);
+		}
+	}
+
+	/**
+	 * Evicts the oldest page of A1in if A1in is over its target size, remembering its blockId in A1out.
+	 * Otherwise evicts the least recently used page of Am.
+	 * Busy pages are skipped; if the preferred list has only busy pages, the other list is used.
+	 *
+	 * @param blockId The number that specifies the block that is going to be stored
+	 * @return index for victim page, or -1 if every page is busy
+	 */
+	public int victim(int blockId) {
+		boolean fromIn = lists.size(A1IN) > inLimit || lists.size(AM) == 0;
+		int page = oldest(fromIn ? A1IN : AM);
+		if (page == -1) {
+			fromIn = !fromIn;
+			page = oldest(fromIn ? A1IN : AM);
+			if (page == -1) {
+				return -1;
+			}
+		}
+
+		lists.remove(page);
+		if (fromIn) {
+			remember(pages.blockIdOf(page));
+		}
+		return page;
+	}
+
+	public void reset() {
+		lists.clear();
+		ghostIndex.clear();
+		for (int i = 0; i < outLimit; i++) {
+			freeGhosts[i] = capacity + i;
+		}
+		freeGhostCount = outLimit;
+	}
+
+	/**
+	 * @param list A1in or Am
+	 * @return the oldest page of the list that isn't busy, or -1 if not found
+	 */
+	private int oldest(int list) {
+		for (int page = lists.first(list); page != PageLists.NONE; page = lists.next(page)) {
+			if (!pages.isBusy(page)) {
+				return page;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds blockId to the tail of A1out, dropping the oldest blockId first if A1out is full.
+	 *
+	 * @param blockId The number that specifies the evicted block
+	 */
+	private void remember(int blockId) {
+		if (blockId < 0) {
+			return;
+		}
+		if (freeGhostCount == 0) {
+			forgetGhost(lists.first(A1OUT));
+		}
+
+		int ghost = freeGhosts[--freeGhostCount];
+		ghostBlock[ghost - capacity] = blockId;
+		ghostIndex.put(blockId, ghost);
+		lists.addLast(A1OUT, ghost);
+	}
+
+	/**
+	 * Drops the node from A1out.
+	 *
+	 * @param ghost The A1out node
+	 */
+	private void forgetGhost(int ghost) {
+		lists.remove(ghost);
+		ghostIndex.remove(ghostBlock[ghost - capacity]);
+		freeGhosts[freeGhostCount++] = ghost;
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ *
+ * WriteAheadLog class makes every block write durable without syncing the whole disk.
+ * The Disk applies a write to its BlockStore and appends a record of it here, and the write completes
+ * only once the record has been forced to the log file next to the DISK file (DISK.log).
+ *
+ * Group commit: a committer thread writes all the records appended since its last force and forces them at once,
+ * so the writers that arrive while a force is in progress share the next one.
+ *
+ * A sync is a checkpoint: the BlockStore writes its dirty blocks to the DISK file and forces it,
+ * and the log is emptied. The log is also checkpointed once it grows past CHECKPOINT_BYTES. At boot, the records left in the log are applied to the BlockStore again,
+ * up to the first one whose checksum doesn't match, which is where a crash tore the log.
+ *
+ * Record: blockId (int), CRC32 of blockId and data (int), data (blockSize bytes)
+ *
+ * Locks are taken in the order BlockStore, fileLock, the log itself (which guards the records not written yet).
+ *
+ *
+ */
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog extends Thread {
+	private static final int HEADER_BYTES = 8;
+	private static final long CHECKPOINT_BYTES = 4 << 20;	// a longer log is checkpointed, bounding the replay at boot
+
+	private Disk disk;					// completes the write requests once they are durable
+	private BlockStore store;
+	private int blockCount;
+	private int blockSize;
+	private FileChannel file;			// the log file
+	private Object fileLock;			// held while the log file is written, forced or emptied
+
+	private ByteArrayOutputStream records;		// records not written to the file yet
+	private ArrayList<DiskRequest> waiting;		// requests of those records
+	private long commits;				// number of forces done by group commits
+
+
+	/**
+	 * The constructor opens the log file and replays the records left in it.
+	 *
+	 * @param disk The Disk whose write requests are completed
+	 * @param store The BlockStore the records are applied to
+	 * @param blockCount The number of blocks in the BlockStore
+	 * @param blockSize The number of bytes per block
+	 * @param fileName The log file
+	 * @throws IOException if the log file can't be opened, or the replayed blocks can't be synced
+	 */
+	public WriteAheadLog(Disk disk, BlockStore store, int blockCount, int blockSize, String fileName)
+			throws IOException {
+		this.disk = disk;
+		this.store = store;
+		this.blockCount = blockCount;
+		this.blockSize = blockSize;
+		file = new RandomAccessFile(fileName, "rw").getChannel();
+		fileLock = new Object();
+		records = new ByteArrayOutputStream();
+		waiting = new ArrayList<DiskRequest>();
+		commits = 0;
+		setDaemon(true);
+
+		int replayed = replay();
+		if (replayed > 0) {
+			SysLib.cerr("threadOS: " + replayed + " blocks replayed from the journal\n");
+		}
+		if (file.size() > 0) {
+			// also drops a torn record, which would hide the records appended after it
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Applies the records in the log file to the BlockStore, stopping at the first torn one.
+	 * A record for a block the BlockStore doesn't have, e.g. one left by a larger disk, is skipped.
+	 *
+	 * @return the number of records applied
+	 * @throws IOException if the log file can't be read
+	 */
+	private int replay() throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + blockSize);
+		byte[] data = new byte[blockSize];
+		int replayed = 0;
+		long position = 0;
+		while (true) {
+			record.clear();
+			while (record.hasRemaining() && file.read(record, position + record.position()) > 0) {
+			}
+			if (record.hasRemaining()) {
+				return replayed;
+			}
+
+			record.flip();
+			int blockId = record.getInt();
+			int checksum = record.getInt();
+			record.get(data);
+			if (checksum != checksum(blockId, data, 0)) {
+				return replayed;
+			}
+			position += record.capacity();
+			if (blockId < 0 || blockId >= blockCount) {
+				continue;
+			}
+			store.write(blockId, data);
+			replayed++;
+		}
+	}
+
+	/**
+	 * Adds a record of a write that has been applied to the BlockStore.
+	 * The request is completed when the record is durable.
+	 *
+	 * @param request The write request
+	 */
+	public synchronized void append(DiskRequest request) {
+		DataOutputStream out = new DataOutputStream(records);
+		try {
+			out.writeInt(request.blockId);
+			out.writeInt(checksum(request.blockId, request.buffer, 0));
+			out.write(request.buffer, 0, blockSize);
+		} catch (IOException e) {
+			// can't happen with a ByteArrayOutputStream
+		}
+		waiting.add(request);
+		notify();
+	}
+
+	/**
+	 * Writes the BlockStore's dirty blocks to the DISK file, and then empties the log.
+	 * The writes still waiting for their records are durable now, so they are completed.
+	 *
+	 * @throws IOException if the DISK file or the log can't be written
+	 */
+	public void checkpoint() throws IOException {
+		ArrayList<DiskRequest> done;
+		synchronized (store) {
+			store.sync();
+			synchronized (fileLock) {
+				file.truncate(0);
+				file.force(false);
+				// appends are made with the BlockStore's lock held, so none can come in meanwhile
+				synchronized (this) {
+					records.reset();
+					done = waiting;
+					waiting = new ArrayList<DiskRequest>();
+				}
+			}
+		}
+		finish(done);
+	}
+
+	/**
+	 * Closes the log file, for a Disk that only replays the log and doesn't journal.
+	 *
+	 * @throws IOException if the log file can't be closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return the number of forces done by group commits
+	 */
+	public synchronized long getCommits() {
+		return commits;
+	}
+
+	/**
+	 * Group commit: waits for records, writes all of them and forces the log once.
+	 * Checkpoints when the log has grown too long.
+	 */
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (waiting.isEmpty()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+
+			ArrayList<DiskRequest> group;
+			synchronized (fileLock) {
+				byte[] groupRecords;
+				synchronized (this) {
+					if (waiting.isEmpty()) {
+						continue;		// a checkpoint took them
+					}
+					groupRecords = records.toByteArray();
+					records.reset();
+					group = waiting;
+					waiting = new ArrayList<DiskRequest>();
+					commits++;
+				}
+
+				// like a failed sync, a failed commit is reported and its writes are completed anyway;
+				// they are in the BlockStore, and the next sync writes them to the DISK file
+				try {
+					ByteBuffer buffer = ByteBuffer.wrap(groupRecords);
+					long position = file.size();
+					while (buffer.hasRemaining()) {
+						position += file.write(buffer, position);
+					}
+					file.force(false);
+				} catch (IOException e) {
+					SysLib.cerr("threadOS: journal: " + e + "\n");
+				}
+			}
+			finish(group);
+
+			try {
+				if (file.size() > CHECKPOINT_BYTES) {
+					checkpoint();
+				}
+			} catch (IOException e) {
+				SysLib.cerr("threadOS: journal: " + e + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Completes the requests.
+	 *
+	 * @param requests The write requests whose records are durable
+	 */
+	private void finish(ArrayList<DiskRequest> requests) {
+		for (int i = 0; i < requests.size(); i++) {
+			disk.finishCommand(requests.get(i));
+		}
+	}
+
+	/**
+	 * @return CRC32 of blockId followed by a block of data
+	 */
+	private int checksum(int blockId, byte data[], int offset) {
+		CRC32 crc = new CRC32();
+		crc.update(new byte[] { (byte) (blockId >>> 24), (byte) (blockId >>> 16), (byte) (blockId >>> 8),
+				(byte) blockId });
+		crc.update(data, offset, blockSize);
+		return (int) crc.getValue();
+	}
+}